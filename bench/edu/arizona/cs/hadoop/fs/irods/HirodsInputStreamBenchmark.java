@@ -0,0 +1,138 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsBenchmarkUtils;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read patterns over the input stream of the file system under test, which
+ * is HirodsBufferedInputStream over HirodsInputStream for iRODS. Reads of a
+ * buffer size or more go straight to HirodsInputStream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HirodsInputStreamBenchmark {
+
+    private static final int SMALL_READ = 100;
+    private static final int LARGE_READ = 1024 * 1024;
+    private static final int RANDOM_READ = 4096;
+
+    // directory in the file system under test, empty for a fake iRODS grid
+    @Param({""})
+    public String uri;
+
+    @Param({"8388608"})
+    public int objectSize;
+
+    @Param({"102400"})
+    public int bufferSize;
+
+    // 0 keeps the buffer at a fixed size
+    @Param({"0", "1048576"})
+    public int maxBufferSize;
+
+    private Path dir;
+    private FileSystem fs;
+    private FSDataInputStream in;
+    private byte[] small = new byte[SMALL_READ];
+    private byte[] large = new byte[LARGE_READ];
+    private Random random = new Random(0);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration conf = HirodsBenchmarkUtils.newConf();
+        HirodsConfigUtils.setIrodsInputBufferSize(conf, this.bufferSize);
+        HirodsConfigUtils.setIrodsInputBufferMaxSize(conf, this.maxBufferSize);
+        this.dir = HirodsBenchmarkUtils.getBaseDir(this.uri, conf);
+        this.fs = HirodsBenchmarkUtils.getFileSystem(this.dir, conf);
+
+        byte[] data = new byte[this.objectSize];
+        new Random(1).nextBytes(data);
+        Path path = new Path(this.dir, "data");
+        FSDataOutputStream out = this.fs.create(path, true);
+        out.write(data);
+        out.close();
+        this.in = this.fs.open(path, this.bufferSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.in.close();
+        this.fs.delete(this.dir, true);
+        this.fs.close();
+    }
+
+    /**
+     * The whole object in record sized reads, as a line reader does.
+     */
+    @Benchmark
+    public long sequentialSmallReads() throws IOException {
+        this.in.seek(0);
+        long total = 0;
+        int bytes_read;
+        while ((bytes_read = this.in.read(this.small, 0, SMALL_READ)) > 0) {
+            total += bytes_read;
+        }
+        return total;
+    }
+
+    /**
+     * The whole object in reads larger than the buffer, which bypass it.
+     */
+    @Benchmark
+    public long sequentialLargeReads() throws IOException {
+        this.in.seek(0);
+        long total = 0;
+        int bytes_read;
+        while ((bytes_read = this.in.read(this.large, 0, LARGE_READ)) > 0) {
+            total += bytes_read;
+        }
+        return total;
+    }
+
+    /**
+     * The whole object a byte at a time.
+     */
+    @Benchmark
+    public void sequentialSingleBytes(Blackhole bh) throws IOException {
+        this.in.seek(0);
+        int b;
+        while ((b = this.in.read()) >= 0) {
+            bh.consume(b);
+        }
+    }
+
+    /**
+     * A record and a page at a random offset, as an index lookup does.
+     */
+    @Benchmark
+    public int randomSeekReads() throws IOException {
+        this.in.seek(this.random.nextInt(this.objectSize - RANDOM_READ - SMALL_READ));
+        return this.in.read(this.small, 0, SMALL_READ) + this.in.read(this.large, 0, RANDOM_READ);
+    }
+}
@@ -0,0 +1,168 @@
+package edu.arizona.cs.hadoop.fs.irods.output;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsBenchmarkUtils;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing records and committing task outputs to the file system under
+ * test.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HirodsOutputBenchmark {
+
+    /**
+     * A record writer over a file created in the file system under test.
+     */
+    @State(Scope.Thread)
+    public static class RecordWriterState {
+
+        // directory in the file system under test, empty for a fake iRODS grid
+        @Param({""})
+        public String uri;
+
+        private Path dir;
+        private FileSystem fs;
+        private FSDataOutputStream out;
+        HirodsTextOutputFormat.LineRecordWriter<Text, LongWritable> writer;
+        Text key = new Text("a key of some twenty");
+        LongWritable value = new LongWritable(1234567890L);
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            Configuration conf = HirodsBenchmarkUtils.newConf();
+            this.dir = HirodsBenchmarkUtils.getBaseDir(this.uri, conf);
+            this.fs = HirodsBenchmarkUtils.getFileSystem(this.dir, conf);
+            this.out = this.fs.create(new Path(this.dir, "records"), true);
+            this.writer = new HirodsTextOutputFormat.LineRecordWriter<Text, LongWritable>(this.out);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            this.out.close();
+            this.fs.delete(this.dir, true);
+            this.fs.close();
+        }
+    }
+
+    /**
+     * Staged outputs of one task, written again before every commit.
+     */
+    @State(Scope.Thread)
+    public static class CommitState {
+
+        // directory in the file system under test, empty for a fake iRODS grid
+        @Param({""})
+        public String uri;
+
+        @Param({"serial", "parallel", "ranged", "bundled"})
+        public String mode;
+
+        @Param({"16"})
+        public int files;
+
+        @Param({"262144"})
+        public int fileSize;
+
+        private Path dir;
+        private FileSystem fs;
+        private File staging;
+        private FileSystem workfs;
+        private byte[] data;
+        TaskAttemptContext context;
+        HirodsFileOutputCommitter committer;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Configuration conf = HirodsBenchmarkUtils.newConf();
+            configure(conf);
+            this.dir = HirodsBenchmarkUtils.getBaseDir(this.uri, conf);
+            this.fs = HirodsBenchmarkUtils.getFileSystem(this.dir, conf);
+            this.staging = HirodsBenchmarkUtils.getLocalDir();
+            this.workfs = FileSystem.getLocal(conf);
+            this.data = new byte[this.fileSize];
+            new Random(1).nextBytes(this.data);
+            this.context = new TaskAttemptContext(conf, new TaskAttemptID("bench", 1, false, 0, 0));
+            this.committer = new HirodsFileOutputCommitter(new Path(this.dir, "output"), new Path(this.staging.toURI()), this.context);
+            this.committer.setupJob(this.context);
+        }
+
+        void configure(Configuration conf) {
+            if (this.mode.equals("parallel")) {
+                HirodsConfigUtils.setIrodsOutputCommitThreads(conf, 4);
+            } else if (this.mode.equals("ranged")) {
+                HirodsConfigUtils.setIrodsOutputCommitThreads(conf, 4);
+                HirodsConfigUtils.setIrodsOutputParallelThreads(conf, 4);
+                HirodsConfigUtils.setIrodsOutputParallelThreshold(conf, this.fileSize);
+            } else if (this.mode.equals("bundled")) {
+                // every staged file goes into a bundle
+                HirodsConfigUtils.setIrodsOutputCommitThreads(conf, 1);
+                HirodsConfigUtils.setIrodsOutputBundleThreshold(conf, this.fileSize + 1);
+            } else {
+                HirodsConfigUtils.setIrodsOutputCommitThreads(conf, 1);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void stage() throws IOException {
+            for (int i = 0; i < this.files; i++) {
+                FSDataOutputStream out = this.workfs.create(new Path(this.committer.getWorkPath(), "part-r-" + i));
+                out.write(this.data);
+                out.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            this.fs.delete(this.dir, true);
+            this.fs.close();
+            this.workfs.delete(new Path(this.staging.toURI()), true);
+        }
+    }
+
+    /**
+     * One line through the record writer of HirodsTextOutputFormat.
+     */
+    @Benchmark
+    public void writeRecord(RecordWriterState state) throws IOException {
+        state.writer.write(state.key, state.value);
+    }
+
+    /**
+     * Move the staged outputs of a task into place, replacing those of the
+     * previous invocation.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void commitTask(CommitState state) throws IOException {
+        state.committer.commitTask(state.context);
+    }
+}
@@ -0,0 +1,70 @@
+package edu.arizona.cs.hadoop.fs.irods.util;
+
+import edu.arizona.cs.hadoop.fs.irods.HirodsFakeFileSystem;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Configuration and file systems of the benchmarks.
+ */
+public class HirodsBenchmarkUtils {
+
+    private static final String PROPERTY_PREFIX = "fs.";
+    private static final String FAKE_SCHEME = "irodsfake";
+
+    /**
+     * A configuration with every "fs." system property of the benchmark JVM,
+     * such as the iRODS account given through -jvmArgsAppend.
+     */
+    public static Configuration newConf() {
+        Configuration conf = new Configuration();
+        for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+            String key = entry.getKey().toString();
+            if (key.startsWith(PROPERTY_PREFIX)) {
+                conf.set(key, entry.getValue().toString());
+            }
+        }
+        return conf;
+    }
+
+    /**
+     * Directory the benchmark works in.
+     *
+     * @param uri directory in the file system under test, empty for a new
+     * fake iRODS grid
+     * @param conf receives the settings of the fake grid
+     */
+    public static Path getBaseDir(String uri, Configuration conf) throws IOException {
+        if (uri.isEmpty()) {
+            conf.set("fs." + FAKE_SCHEME + ".impl", HirodsFakeFileSystem.class.getName());
+            HirodsConfigUtils.setIrodsFakeRoot(conf, getLocalDir().getPath());
+            return new Path(FAKE_SCHEME + "://localhost:1247/zone/home/bench");
+        }
+        return new Path(uri);
+    }
+
+    /**
+     * @return a new local directory
+     */
+    public static File getLocalDir() throws IOException {
+        File dir = File.createTempFile("hirods-bench", "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * A file system instance of its own, closing it leaves the instances of
+     * other benchmarks open.
+     */
+    public static FileSystem getFileSystem(Path dir, Configuration conf) throws IOException {
+        URI uri = dir.toUri();
+        conf.setBoolean("fs." + uri.getScheme() + ".impl.disable.cache", true);
+        return FileSystem.get(uri, conf);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+
+/**
+ * The data grid behind a HirodsFileSystem. The file system, its streams and
+ * the output committer reach the grid only through connections taken from
+ * here, so the same code runs against iRODS or against the local fake used
+ * for tests and benchmarks.
+ */
+public interface HirodsBackend {
+
+    /**
+     * Take a connection out of the pool, connecting and authenticating if no
+     * idle one is left. The connection goes back to the pool on close.
+     */
+    HirodsConnection connect() throws IOException;
+
+    String getHost();
+
+    int getPort();
+
+    String getZone();
+
+    /**
+     * @return the collection relative paths are resolved against
+     */
+    String getHomeDirectory();
+
+    /**
+     * Disconnect idle connections. Connections still out are disconnected as
+     * they are closed.
+     */
+    void close() throws IOException;
+}
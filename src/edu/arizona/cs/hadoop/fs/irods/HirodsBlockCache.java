@@ -0,0 +1,156 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A process wide LRU cache of data object blocks shared by all input streams
+ * in the JVM. Blocks are keyed by grid and path, modification time and block
+ * offset, so a modified data object never hits stale blocks and file systems
+ * over different grids never share blocks.
+ */
+public class HirodsBlockCache {
+
+    private static HirodsBlockCache instance;
+
+    private int blockSize;
+    private long capacity;
+    private boolean offHeap;
+    private long used = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private LinkedHashMap<String, ByteBuffer> blocks;
+
+    /**
+     * Get the cache of this JVM, created with the given configuration on
+     * first use.
+     *
+     * @return the cache, or null if the block cache is disabled
+     */
+    public static synchronized HirodsBlockCache getInstance(Configuration conf) {
+        if (instance == null) {
+            long capacity = HirodsConfigUtils.getIrodsInputCacheSize(conf);
+            if (capacity <= 0) {
+                return null;
+            }
+            instance = new HirodsBlockCache(HirodsConfigUtils.getIrodsInputCacheBlockSize(conf), capacity, HirodsConfigUtils.getIrodsInputCacheOffHeap(conf));
+        }
+        return instance;
+    }
+
+    /**
+     * @return the cache of this JVM, or null if none was created
+     */
+    public static synchronized HirodsBlockCache getInstance() {
+        return instance;
+    }
+
+    public HirodsBlockCache(int blockSize, long capacity, boolean offHeap) {
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.blocks = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * Name a data object for the process wide caches, the path alone may
+     * name different objects in different grids.
+     */
+    public static String makeObjectKey(String host, int port, String path) {
+        return host + ":" + port + path;
+    }
+
+    /**
+     * Copy cached bytes of a block.
+     *
+     * @param object the data object, from makeObjectKey
+     * @param position position in the data object
+     * @return number of bytes copied, or -1 if the block is not cached
+     */
+    public synchronized int read(String object, long modificationTime, long position, byte[] bytes, int off, int len) {
+        long blockOffset = position - (position % this.blockSize);
+        ByteBuffer block = this.blocks.get(makeKey(object, modificationTime, blockOffset));
+        if (block == null) {
+            this.misses++;
+            return -1;
+        }
+        this.hits++;
+
+        int blockPos = (int) (position - blockOffset);
+        if (blockPos >= block.limit()) {
+            return 0;
+        }
+        int readLen = Math.min(len, block.limit() - blockPos);
+        ByteBuffer view = block.duplicate();
+        view.position(blockPos);
+        view.get(bytes, off, readLen);
+        return readLen;
+    }
+
+    /**
+     * Store a block. The offset must be aligned to the block size.
+     *
+     * @param object the data object, from makeObjectKey
+     */
+    public void put(String object, long modificationTime, long blockOffset, byte[] data, int len) {
+        if (len > this.capacity) {
+            return;
+        }
+
+        ByteBuffer block;
+        if (this.offHeap) {
+            block = ByteBuffer.allocateDirect(len);
+            block.put(data, 0, len);
+            block.flip();
+        } else {
+            byte[] copy = new byte[len];
+            System.arraycopy(data, 0, copy, 0, len);
+            block = ByteBuffer.wrap(copy);
+        }
+
+        synchronized (this) {
+            ByteBuffer old = this.blocks.put(makeKey(object, modificationTime, blockOffset), block);
+            if (old != null) {
+                this.used -= old.capacity();
+            }
+            this.used += len;
+            evict();
+        }
+    }
+
+    public synchronized void clear() {
+        this.blocks.clear();
+        this.used = 0;
+    }
+
+    public synchronized long getUsed() {
+        return this.used;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    private void evict() {
+        while (this.used > this.capacity && !this.blocks.isEmpty()) {
+            Map.Entry<String, ByteBuffer> eldest = this.blocks.entrySet().iterator().next();
+            this.used -= eldest.getValue().capacity();
+            this.blocks.remove(eldest.getKey());
+        }
+    }
+
+    private static String makeKey(String object, long modificationTime, long blockOffset) {
+        return object + "@" + modificationTime + ":" + blockOffset;
+    }
+}
@@ -2,6 +2,7 @@ package edu.arizona.cs.hadoop.fs.irods;
 
 import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FSInputStream;
@@ -15,26 +16,81 @@ public class HirodsBufferedInputStream extends FSInputStream {
     private int buffer_pos = 0;
     private long buffer_start_pos = 0;
     private int buffer_size = 0;
+    private int min_buffer_size = 0;
+    private int max_buffer_size = 0;
     private HirodsInputStream is;
+    private HirodsReadAhead readahead;
+    private long refills = 0;
     
     public HirodsBufferedInputStream(HirodsInputStream is) throws IOException {
-        init(is, HirodsConfigUtils.DEFAULT_BUFFER_SIZE);
+        init(is, HirodsConfigUtils.DEFAULT_BUFFER_SIZE, 0, 0);
     }
     
     public HirodsBufferedInputStream(HirodsInputStream is, int buffer_size) throws IOException {
-        init(is, buffer_size);
+        init(is, buffer_size, 0, 0);
     }
     
-    private void init(HirodsInputStream is, int buffer_size) throws IOException {
+    /**
+     * @param readahead_depth maximum number of buffers prefetched in background,
+     * 0 to read synchronously
+     */
+    public HirodsBufferedInputStream(HirodsInputStream is, int buffer_size, int readahead_depth) throws IOException {
+        init(is, buffer_size, 0, readahead_depth);
+    }
+    
+    /**
+     * @param max_buffer_size the buffer doubles up to this size while reads
+     * are sequential and falls back to buffer_size on seeks, 0 keeps it fixed
+     * @param readahead_depth maximum number of buffers prefetched in background,
+     * 0 to read synchronously
+     */
+    public HirodsBufferedInputStream(HirodsInputStream is, int buffer_size, int max_buffer_size, int readahead_depth) throws IOException {
+        init(is, buffer_size, max_buffer_size, readahead_depth);
+    }
+    
+    private void init(HirodsInputStream is, int buffer_size, int max_buffer_size, int readahead_depth) throws IOException {
         this.is = is;
-        this.buffer_size = buffer_size;
+        // no need for a buffer larger than the data object
+        long size = Math.max(1, is.getSize());
+        this.buffer_size = (int) Math.min(buffer_size, size);
+        this.min_buffer_size = this.buffer_size;
+        this.max_buffer_size = (int) Math.min(Math.max(max_buffer_size, buffer_size), size);
         this.buffer = new byte[this.buffer_size];
         this.buffer_start_pos = is.getPos();
         this.buffer_pos = 0;
         this.buffer_end = 0;
+        // parallel range reads already fetch ahead
+        if(readahead_depth > 0 && !is.isParallelReadEnabled() && is.getSize() > buffer_size) {
+            this.readahead = new HirodsReadAhead(is, buffer_size, readahead_depth);
+            // prefetched buffers have a fixed size
+            this.max_buffer_size = this.buffer_size;
+        }
+    }
+    
+    /*
+     * double the buffer on sequential refills, go back to the initial size
+     * on random access
+     */
+    private void adaptBufferSize(long startOffset) {
+        if(this.max_buffer_size <= this.min_buffer_size) {
+            return;
+        }
+        
+        boolean sequential = this.buffer_end > 0 && startOffset == this.buffer_start_pos + this.buffer_end;
+        int wanted = sequential ? (int) Math.min(this.max_buffer_size, 2L * this.buffer_size) : this.min_buffer_size;
+        if(wanted != this.buffer_size) {
+            this.buffer_size = wanted;
+            this.buffer = new byte[wanted];
+        }
     }
     
     private int fillBuffer(long startOffset) throws IOException {
+        this.refills++;
+        if(this.readahead != null) {
+            return fillBufferFromReadahead(startOffset);
+        }
+        
+        adaptBufferSize(startOffset);
         this.is.seek(startOffset);
         this.buffer_start_pos = startOffset;
         this.buffer_pos = 0;
@@ -48,6 +104,40 @@ public class HirodsBufferedInputStream extends FSInputStream {
         return retval;
     }
     
+    private int fillBufferFromReadahead(long startOffset) throws IOException {
+        HirodsReadAhead.Block block = this.readahead.take(startOffset);
+        if(block == null) {
+            // eof
+            this.buffer_start_pos = startOffset;
+            this.buffer_pos = 0;
+            this.buffer_end = 0;
+            return -1;
+        }
+        
+        // swap buffers instead of copying
+        this.readahead.recycle(this.buffer);
+        this.buffer = block.buffer;
+        this.buffer_start_pos = block.offset;
+        this.buffer_pos = (int) (startOffset - block.offset);
+        this.buffer_end = block.length;
+        // prefetched bytes bypass the sequential reads of the input stream
+        this.is.verify(block.offset, block.buffer, 0, block.length);
+        
+        int retval = this.buffer_end - this.buffer_pos;
+        if(retval <= 0) {
+            return -1;
+        }
+        return retval;
+    }
+    
+    public long getRefillCount() {
+        return this.refills;
+    }
+    
+    public long getBytesRead() {
+        return this.is.getBytesRead();
+    }
+    
     @Override
     public long skip(long l) throws IOException {
         if(l <= 0) {
@@ -72,6 +162,9 @@ public class HirodsBufferedInputStream extends FSInputStream {
     
     @Override
     public synchronized int available() throws IOException {
+        if(this.readahead != null) {
+            return (int) (this.is.getSize() - getPos());
+        }
         return (this.buffer_end - this.buffer_pos) + this.is.available();
     }
     
@@ -80,7 +173,13 @@ public class HirodsBufferedInputStream extends FSInputStream {
         if(targetPos >= this.buffer_start_pos && targetPos < this.buffer_start_pos + this.buffer_end) {
             this.buffer_pos = (int) (targetPos - this.buffer_start_pos);
         } else {
-            this.is.seek(targetPos);
+            if(this.readahead == null) {
+                this.is.seek(targetPos);
+            } else if(targetPos > this.is.getSize()) {
+                throw new IOException("Cannot seek after EOF");
+            } else if(!this.readahead.isPrefetched(targetPos)) {
+                this.readahead.cancel();
+            }
 
             this.buffer_start_pos = targetPos;
             this.buffer_pos = 0;
@@ -114,6 +213,10 @@ public class HirodsBufferedInputStream extends FSInputStream {
     
     @Override
     public int read(byte[] bytes, int off, int len) throws IOException {
+        if(len >= this.buffer_size && this.readahead == null) {
+            return readLarge(bytes, off, len);
+        }
+        
         if(len <= (this.buffer_end - this.buffer_pos)) {
             System.arraycopy(this.buffer, this.buffer_pos, bytes, off, len);
             this.buffer_pos += len;
@@ -145,11 +248,106 @@ public class HirodsBufferedInputStream extends FSInputStream {
         }
     }
     
+    /*
+     * requests of a buffer size or more skip the internal buffer and loop on
+     * the underlying stream until satisfied or EOF
+     */
+    private synchronized int readLarge(byte[] bytes, int off, int len) throws IOException {
+        int total = 0;
+        if(this.buffer_end - this.buffer_pos > 0) {
+            total = Math.min(this.buffer_end - this.buffer_pos, len);
+            System.arraycopy(this.buffer, this.buffer_pos, bytes, off, total);
+            this.buffer_pos += total;
+        }
+        
+        // the underlying stream is at the end of the drained buffer
+        long pos = getPos();
+        while(total < len) {
+            int ret = this.is.read(bytes, off + total, len - total);
+            if(ret <= 0) {
+                break;
+            }
+            total += ret;
+            pos += ret;
+        }
+        if(this.buffer_pos == this.buffer_end) {
+            this.buffer_start_pos = pos;
+            this.buffer_pos = 0;
+            this.buffer_end = 0;
+        }
+        
+        if(total == 0) {
+            // eof
+            return -1;
+        }
+        return total;
+    }
+    
+    /**
+     * Read into a ByteBuffer. Buffered bytes are handed out first. A request
+     * of at least a buffer size then goes to the underlying stream directly,
+     * skipping the internal buffer.
+     */
+    public synchronized int read(ByteBuffer buf) throws IOException {
+        int len = buf.remaining();
+        if(len == 0) {
+            return 0;
+        }
+        
+        if(this.buffer_end - this.buffer_pos > 0) {
+            int min_read = Math.min(this.buffer_end - this.buffer_pos, len);
+            buf.put(this.buffer, this.buffer_pos, min_read);
+            this.buffer_pos += min_read;
+            return min_read;
+        }
+        
+        if(len >= this.buffer_size && this.readahead == null) {
+            // the underlying stream is at the end of the drained buffer
+            long pos = getPos();
+            int ret = this.is.read(buf);
+            this.buffer_start_pos = pos + Math.max(ret, 0);
+            this.buffer_pos = 0;
+            this.buffer_end = 0;
+            return ret;
+        }
+        
+        int ret = fillBuffer(this.buffer_start_pos + this.buffer_end);
+        if(ret <= 0) {
+            // eof
+            return ret;
+        }
+        int min_read = Math.min(this.buffer_end - this.buffer_pos, len);
+        buf.put(this.buffer, this.buffer_pos, min_read);
+        this.buffer_pos += min_read;
+        return min_read;
+    }
+    
+    /**
+     * Positional read. Served from the buffer when it holds the position,
+     * otherwise from the underlying stream without touching the buffer.
+     */
+    @Override
+    public int read(long position, byte[] bytes, int off, int len) throws IOException {
+        synchronized(this) {
+            if(position >= this.buffer_start_pos && position < this.buffer_start_pos + this.buffer_end) {
+                int buffered = (int) (position - this.buffer_start_pos);
+                int min_read = Math.min(len, this.buffer_end - buffered);
+                System.arraycopy(this.buffer, buffered, bytes, off, min_read);
+                return min_read;
+            }
+        }
+        return this.is.read(position, bytes, off, len);
+    }
+    
     @Override
     public void close() throws IOException {
         this.buffer_end = 0;
         this.buffer_pos = 0;
         this.buffer = null;
+        if(this.readahead != null) {
+            this.readahead.close();
+            this.readahead = null;
+        }
         this.is.close();
     }
     
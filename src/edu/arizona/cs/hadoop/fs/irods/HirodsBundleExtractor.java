@@ -0,0 +1,17 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A file system that unpacks a tar bundle stored in it into a directory with
+ * a single request.
+ */
+public interface HirodsBundleExtractor {
+
+    /**
+     * Extract the bundle under the target directory, replacing existing
+     * files. The bundle itself is kept.
+     */
+    void extractBundle(Path bundle, Path target) throws IOException;
+}
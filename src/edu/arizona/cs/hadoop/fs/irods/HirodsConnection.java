@@ -0,0 +1,203 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One authenticated connection to the grid. Paths are absolute iRODS paths.
+ *
+ * A connection carries one request at a time. It may be used from any
+ * thread, calls from several threads are serialized. Handles opened on a
+ * connection use it for every transfer, so a connection must outlive its
+ * handles.
+ */
+public interface HirodsConnection extends Closeable {
+
+    /**
+     * @throws java.io.FileNotFoundException if nothing is at the path
+     */
+    Entry stat(String path) throws IOException;
+
+    /**
+     * Collections directly under the path, page by page.
+     */
+    Listing listCollections(String path) throws IOException;
+
+    /**
+     * Data objects directly under the path, page by page.
+     */
+    Listing listDataObjects(String path) throws IOException;
+
+    /**
+     * Data objects at any depth under the path, page by page, from catalog
+     * queries over the path prefix.
+     */
+    Listing listDataObjectsRecursive(String path) throws IOException;
+
+    /**
+     * Collections at any depth under the path, not including the path
+     * itself, page by page.
+     */
+    Listing listCollectionsRecursive(String path) throws IOException;
+
+    /**
+     * Create the collection and its missing parents.
+     *
+     * @return true if the collection exists afterwards
+     */
+    boolean mkdirs(String path) throws IOException;
+
+    /**
+     * Open a data object for reading from offset 0.
+     *
+     * @throws java.io.FileNotFoundException if the data object is missing
+     */
+    Handle openRead(String path) throws IOException;
+
+    /**
+     * Create a data object and open it for writing from offset 0.
+     *
+     * @param overwrite replace an existing data object, otherwise the server
+     * refuses to create it if anything exists at the path
+     * @throws org.apache.hadoop.fs.FileAlreadyExistsException if overwrite is
+     * false and the path exists
+     */
+    Handle create(String path, boolean overwrite) throws IOException;
+
+    /**
+     * Open a data object for writing, creating it if missing and keeping its
+     * content otherwise.
+     */
+    Handle openWrite(String path) throws IOException;
+
+    /**
+     * @param force skip the trash
+     */
+    void deleteDataObject(String path, boolean force) throws IOException;
+
+    /**
+     * @param recursive remove everything under the collection in the same
+     * call, otherwise the collection has to be empty
+     * @param force skip the trash
+     */
+    void deleteCollection(String path, boolean recursive, boolean force) throws IOException;
+
+    /**
+     * Move a data object or collection in one server side call. The
+     * destination must not exist.
+     */
+    void rename(String src, String dst, boolean collection) throws IOException;
+
+    /**
+     * @return the checksum registered for the data object, null if none
+     * @throws java.io.FileNotFoundException if the data object is missing
+     */
+    String getChecksum(String path) throws IOException;
+
+    /**
+     * Have the server compute and register the checksum of the data object.
+     */
+    String computeChecksum(String path) throws IOException;
+
+    /**
+     * @return the hosts of the resources holding a replica
+     */
+    List<String> getReplicaHosts(String path) throws IOException;
+
+    /**
+     * Unpack a tar bundle stored in the grid into the collection, every
+     * entry registered by the server.
+     */
+    void extractBundle(String bundle, String target) throws IOException;
+
+    /**
+     * Give the connection back to the pool.
+     */
+    @Override
+    void close();
+
+    /**
+     * Disconnect instead of giving the connection back to the pool, for a
+     * connection that a failed transfer may have left in an unknown state.
+     */
+    void discard();
+
+    /**
+     * What the catalog knows about a data object or collection.
+     */
+    public static class Entry {
+
+        private String path;
+        private boolean collection;
+        private long length;
+        private long modificationTime;
+        private String owner;
+
+        /**
+         * @param modificationTime in milliseconds, 0 if unknown
+         */
+        public Entry(String path, boolean collection, long length, long modificationTime, String owner) {
+            this.path = path;
+            this.collection = collection;
+            this.length = collection ? 0 : length;
+            this.modificationTime = modificationTime;
+            this.owner = owner;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public boolean isCollection() {
+            return this.collection;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        public long getModificationTime() {
+            return this.modificationTime;
+        }
+
+        public String getOwner() {
+            return this.owner;
+        }
+    }
+
+    /**
+     * Catalog entries fetched one page per request.
+     */
+    public interface Listing extends Closeable {
+
+        /**
+         * @return the next page, null once all pages were returned
+         */
+        List<Entry> nextPage() throws IOException;
+
+        /**
+         * Release what the server keeps for pages not fetched.
+         */
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * An open data object.
+     */
+    public interface Handle extends Closeable {
+
+        /**
+         * @return bytes read, -1 at the end of the data object
+         */
+        int read(byte[] b, int off, int len) throws IOException;
+
+        void write(byte[] b, int off, int len) throws IOException;
+
+        /**
+         * Move to an absolute offset.
+         */
+        void seek(long offset) throws IOException;
+    }
+}
@@ -0,0 +1,149 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.irods.jargon.core.connection.AbstractConnection;
+import org.irods.jargon.core.connection.AbstractIRODSMidLevelProtocol;
+import org.irods.jargon.core.connection.IRODSAccount;
+import org.irods.jargon.core.connection.IRODSProtocolManager;
+import org.irods.jargon.core.connection.IRODSSession;
+import org.irods.jargon.core.connection.IRODSSimpleProtocolManager;
+import org.irods.jargon.core.connection.PipelineConfiguration;
+import org.irods.jargon.core.exception.AuthenticationException;
+import org.irods.jargon.core.exception.JargonException;
+import org.irods.jargon.core.packinstr.MiscSvrInfo;
+
+/**
+ * A bounded pool of authenticated iRODS connections.
+ *
+ * Jargon asks its protocol manager for a connection whenever a thread has
+ * none bound and hands it back when the session is closed. This manager keeps
+ * returned connections per account instead of disconnecting them, so the next
+ * checkout skips connect and authentication.
+ */
+public class HirodsConnectionPool extends IRODSProtocolManager {
+
+    private static final Log LOG = LogFactory.getLog(HirodsConnectionPool.class);
+
+    private IRODSSimpleProtocolManager connectionFactory;
+    private HirodsPool<AbstractIRODSMidLevelProtocol> pool;
+
+    public HirodsConnectionPool(Configuration conf) {
+        this(conf, null);
+    }
+
+    /**
+     * @param metrics receives the time taken to hand out connections, may be
+     * null
+     */
+    public HirodsConnectionPool(Configuration conf, HirodsMetrics metrics) {
+        this.connectionFactory = IRODSSimpleProtocolManager.instance();
+        this.pool = new HirodsPool<AbstractIRODSMidLevelProtocol>(conf, metrics) {
+            @Override
+            protected Object identify(AbstractIRODSMidLevelProtocol protocol) {
+                return protocol.getIrodsConnection();
+            }
+
+            @Override
+            protected boolean isConnected(AbstractIRODSMidLevelProtocol protocol) {
+                return protocol.getIrodsConnection().isConnected();
+            }
+
+            @Override
+            protected boolean validate(AbstractIRODSMidLevelProtocol protocol) {
+                try {
+                    // server info, not the session's cached copy of it
+                    protocol.irodsFunction(MiscSvrInfo.PI_TAG, "", MiscSvrInfo.API_NBR);
+                    return true;
+                } catch (JargonException ex) {
+                    LOG.debug("Dropping iRODS connection that failed validation", ex);
+                    return false;
+                }
+            }
+
+            @Override
+            protected void disconnect(AbstractIRODSMidLevelProtocol protocol) {
+                shutdownQuietly(protocol);
+            }
+        };
+    }
+
+    @Override
+    public AbstractIRODSMidLevelProtocol getIRODSProtocol(final IRODSAccount account, final PipelineConfiguration pipelineConfiguration, final IRODSSession session) throws AuthenticationException, JargonException {
+        AbstractIRODSMidLevelProtocol protocol;
+        try {
+            protocol = this.pool.checkout(account.toString(), new HirodsPool.Connector<AbstractIRODSMidLevelProtocol>() {
+                @Override
+                public AbstractIRODSMidLevelProtocol connect() throws IOException {
+                    try {
+                        AbstractIRODSMidLevelProtocol protocol = connectionFactory.getIRODSProtocol(account, pipelineConfiguration, session);
+                        // route disconnect() back to this pool instead of the factory
+                        protocol.setIrodsProtocolManager(HirodsConnectionPool.this);
+                        return protocol;
+                    } catch (JargonException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            if (ex.getCause() instanceof JargonException) {
+                throw (JargonException) ex.getCause();
+            }
+            throw new JargonException(ex.getMessage(), ex);
+        }
+        protocol.setIrodsSession(session);
+        return protocol;
+    }
+
+    @Override
+    public void returnIRODSProtocol(AbstractIRODSMidLevelProtocol protocol) throws JargonException {
+        this.pool.checkin(protocol.getIrodsAccount().toString(), protocol);
+    }
+
+    @Override
+    public void returnWithForce(AbstractIRODSMidLevelProtocol protocol) {
+        this.pool.forget(protocol.getIrodsConnection());
+        super.returnWithForce(protocol);
+    }
+
+    @Override
+    public void returnConnectionWithForce(AbstractConnection connection) {
+        this.pool.forget(connection);
+        super.returnConnectionWithForce(connection);
+    }
+
+    /**
+     * Disconnect all idle connections and refuse to keep connections returned
+     * after this point.
+     */
+    @Override
+    public void destroy() throws JargonException {
+        this.pool.destroy();
+    }
+
+    /**
+     * Disconnect idle connections that exceeded the idle timeout or the
+     * maximum lifetime.
+     */
+    public void evictIdleConnections() {
+        this.pool.evictIdleConnections();
+    }
+
+    public int getNumActive() {
+        return this.pool.getNumActive();
+    }
+
+    public int getNumIdle() {
+        return this.pool.getNumIdle();
+    }
+
+    private static void shutdownQuietly(AbstractIRODSMidLevelProtocol protocol) {
+        try {
+            protocol.shutdown();
+        } catch (JargonException ex) {
+            LOG.warn("Failed to shutdown iRODS connection", ex);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * A cache of whole data objects on local disk, shared by all processes of a
+ * node that use the same directory.
+ *
+ * Each object is kept as a data file and a meta file recording the iRODS
+ * path, length and modification time. A cached copy is used only if both
+ * still match the catalog. When the total size exceeds the capacity, the
+ * least recently used objects are removed.
+ *
+ * Objects larger than the maximum object size are not cached. An object is
+ * downloaded by one process at a time: the download holds a lock file, and
+ * processes waiting on it use the copy it stored. Lock files are empty and
+ * are never removed.
+ */
+public class HirodsDiskCache {
+
+    private static final Log LOG = LogFactory.getLog(HirodsDiskCache.class);
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOCK_SUFFIX = ".lock";
+    // file locks are held by the JVM, so threads of one JVM lock here first
+    private static final Object[] LOCAL_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCAL_LOCKS.length; i++) {
+            LOCAL_LOCKS[i] = new Object();
+        }
+    }
+
+    private File dir;
+    private long capacity;
+    private long maxObjectSize;
+
+    /**
+     * Source of a data object, opened only when it has to be downloaded.
+     */
+    public interface Source {
+
+        InputStream open() throws IOException;
+    }
+
+    public HirodsDiskCache(File dir, long capacity, long maxObjectSize) throws IOException {
+        this.dir = dir;
+        this.capacity = capacity;
+        this.maxObjectSize = maxObjectSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + dir);
+        }
+    }
+
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    public long getMaxObjectSize() {
+        return this.maxObjectSize;
+    }
+
+    /**
+     * Is a data object of this length worth copying to local disk?
+     */
+    public boolean isCacheable(long length) {
+        return length <= this.maxObjectSize && length <= this.capacity;
+    }
+
+    /**
+     * Find a valid cached copy of a data object, downloading it from the
+     * source if there is none. Only one process at a time downloads an
+     * object, the others wait and use its copy.
+     *
+     * @return the local copy
+     */
+    public File get(String key, long length, long modificationTime, Source source) throws IOException {
+        File local = lookup(key, length, modificationTime);
+        if (local != null) {
+            return local;
+        }
+
+        String name = makeName(key);
+        synchronized (LOCAL_LOCKS[(name.hashCode() & 0x7fffffff) % LOCAL_LOCKS.length]) {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(this.dir, name + LOCK_SUFFIX), "rw");
+            try {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    // stored by another process while waiting for the lock
+                    local = lookup(key, length, modificationTime);
+                    if (local != null) {
+                        return local;
+                    }
+                    InputStream in = source.open();
+                    try {
+                        return store(key, length, modificationTime, in);
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    /**
+     * Find a valid cached copy of a data object.
+     *
+     * @return the local copy, or null if not cached or stale
+     */
+    public File lookup(String key, long length, long modificationTime) {
+        String name = makeName(key);
+        File data = new File(this.dir, name + DATA_SUFFIX);
+        File meta = new File(this.dir, name + META_SUFFIX);
+        if (!data.isFile() || !meta.isFile()) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(meta);
+            props.load(is);
+        } catch (IOException ex) {
+            return null;
+        } finally {
+            closeQuietly(is);
+        }
+
+        if (!key.equals(props.getProperty("path"))
+                || !String.valueOf(length).equals(props.getProperty("length"))
+                || !String.valueOf(modificationTime).equals(props.getProperty("mtime"))
+                || data.length() != length) {
+            // the data object changed since it was cached
+            data.delete();
+            meta.delete();
+            return null;
+        }
+
+        // last modified time of the data file serves as the access time
+        data.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    /**
+     * Copy a data object into the cache.
+     *
+     * @return the local copy
+     */
+    public File store(String key, long length, long modificationTime, InputStream in) throws IOException {
+        String name = makeName(key);
+        File temp = File.createTempFile(name, TEMP_SUFFIX, this.dir);
+        try {
+            OutputStream os = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[100 * 1024];
+                int bytes_read;
+                while ((bytes_read = in.read(buffer)) != -1) {
+                    os.write(buffer, 0, bytes_read);
+                }
+            } finally {
+                os.close();
+            }
+
+            if (temp.length() != length) {
+                throw new IOException("Cached copy of " + key + " has " + temp.length() + " bytes, expected " + length);
+            }
+
+            Properties props = new Properties();
+            props.setProperty("path", key);
+            props.setProperty("length", String.valueOf(length));
+            props.setProperty("mtime", String.valueOf(modificationTime));
+            File metaTemp = new File(this.dir, temp.getName() + META_SUFFIX);
+            OutputStream mos = new FileOutputStream(metaTemp);
+            try {
+                props.store(mos, null);
+            } finally {
+                mos.close();
+            }
+
+            // publish data before meta, so a meta file always has its data
+            File data = new File(this.dir, name + DATA_SUFFIX);
+            File meta = new File(this.dir, name + META_SUFFIX);
+            if (!temp.renameTo(data) || !metaTemp.renameTo(meta)) {
+                metaTemp.delete();
+                throw new IOException("Cannot publish cached copy of " + key);
+            }
+
+            evict();
+            return data;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Remove least recently used objects until the cache fits its capacity.
+     */
+    public synchronized void evict() {
+        File[] files = this.dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long used = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(DATA_SUFFIX)) {
+                used += file.length();
+            }
+        }
+        if (used <= this.capacity) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long t1 = f1.lastModified();
+                long t2 = f2.lastModified();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (used <= this.capacity) {
+                break;
+            }
+            String fileName = file.getName();
+            if (!fileName.endsWith(DATA_SUFFIX)) {
+                continue;
+            }
+            long size = file.length();
+            String name = fileName.substring(0, fileName.length() - DATA_SUFFIX.length());
+            // the lock file stays, a process may hold or wait on it, and a
+            // new one would let a second download of the object start
+            new File(this.dir, name + META_SUFFIX).delete();
+            if (file.delete()) {
+                used -= size;
+                LOG.debug("Evicted " + fileName + " from disk cache");
+            }
+        }
+    }
+
+    private static String makeName(String key) {
+        return MD5Hash.digest(key).toString();
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ex) {
+                // ignore exceptions
+            }
+        }
+    }
+}
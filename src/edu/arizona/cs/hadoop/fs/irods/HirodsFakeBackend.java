@@ -0,0 +1,588 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsTarUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+
+/**
+ * A stand-in for an iRODS grid that keeps data objects as files under a
+ * local directory.
+ *
+ * Every catalog request and every connect waits "fs.irods.fake.latency" and
+ * may fail with probability "fs.irods.fake.failure_rate". Transfers on a
+ * handle are throttled to "fs.irods.fake.bandwidth" and may fail in the
+ * same way. Connections come from the same bounded pool as iRODS
+ * connections, and a connection serves one request at a time.
+ */
+public class HirodsFakeBackend implements HirodsBackend {
+
+    private static final String KEY = "fake";
+
+    private String host;
+    private int port;
+    private String zone;
+    private File root;
+    private long latency;
+    private long bandwidth;
+    private double failureRate;
+    private String checksumAlgorithm;
+    private int pageSize;
+    private Random random = new Random();
+    private HirodsPool<Session> pool;
+
+    public HirodsFakeBackend(Configuration conf, String host, int port, String zone, HirodsMetrics metrics) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.zone = zone;
+        this.root = new File(HirodsConfigUtils.getIrodsFakeRoot(conf));
+        this.latency = HirodsConfigUtils.getIrodsFakeLatency(conf);
+        this.bandwidth = HirodsConfigUtils.getIrodsFakeBandwidth(conf);
+        this.failureRate = HirodsConfigUtils.getIrodsFakeFailureRate(conf);
+        this.checksumAlgorithm = HirodsConfigUtils.getIrodsFakeChecksumAlgorithm(conf);
+        this.pageSize = HirodsConfigUtils.getIrodsListPageSize(conf);
+        if (!this.root.isDirectory() && !this.root.mkdirs()) {
+            throw new IOException("Cannot create fake iRODS root " + this.root);
+        }
+        this.pool = new HirodsPool<Session>(conf, metrics) {
+            @Override
+            protected Object identify(Session session) {
+                return session;
+            }
+
+            @Override
+            protected boolean isConnected(Session session) {
+                return true;
+            }
+
+            @Override
+            protected boolean validate(Session session) {
+                try {
+                    request("validate");
+                    return true;
+                } catch (IOException ex) {
+                    return false;
+                }
+            }
+
+            @Override
+            protected void disconnect(Session session) {
+            }
+        };
+    }
+
+    @Override
+    public HirodsConnection connect() throws IOException {
+        Session session = this.pool.checkout(KEY, new HirodsPool.Connector<Session>() {
+            @Override
+            public Session connect() throws IOException {
+                request("connect");
+                return new Session();
+            }
+        });
+        return new FakeConnection(session);
+    }
+
+    @Override
+    public String getHost() {
+        return this.host;
+    }
+
+    @Override
+    public int getPort() {
+        return this.port;
+    }
+
+    @Override
+    public String getZone() {
+        return this.zone;
+    }
+
+    @Override
+    public String getHomeDirectory() {
+        return "/" + this.zone;
+    }
+
+    public HirodsPool<?> getPool() {
+        return this.pool;
+    }
+
+    @Override
+    public void close() {
+        this.pool.destroy();
+    }
+
+    private File toLocal(String path) {
+        return new File(this.root, path);
+    }
+
+    private void request(String what) throws IOException {
+        sleep(this.latency);
+        maybeFail(what);
+    }
+
+    private void maybeFail(String what) throws IOException {
+        if (this.failureRate > 0) {
+            double draw;
+            synchronized (this.random) {
+                draw = this.random.nextDouble();
+            }
+            if (draw < this.failureRate) {
+                throw new IOException("Injected failure : " + what);
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[100 * 1024];
+        int bytes_read;
+        while ((bytes_read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytes_read);
+        }
+    }
+
+    /*
+     * the grid registers checksums computed over what it stored
+     */
+    private String checksum(File file) throws IOException {
+        MessageDigest digest = HirodsFileChecksum.newDigest(this.checksumAlgorithm);
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[100 * 1024];
+            int bytes_read;
+            while ((bytes_read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytes_read);
+            }
+        } finally {
+            in.close();
+        }
+        return new HirodsFileChecksum(this.checksumAlgorithm, digest.digest()).toCatalogString();
+    }
+
+    private HirodsConnection.Entry toEntry(String path, File file) {
+        return new HirodsConnection.Entry(path, file.isDirectory(), file.length(), file.lastModified(), System.getProperty("user.name"));
+    }
+
+    private static String child(String parent, String name) {
+        return (parent.equals("/") ? "" : parent) + "/" + name;
+    }
+
+    private static File[] sortedChildren(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return new File[0];
+        }
+        Arrays.sort(children);
+        return children;
+    }
+
+    /*
+     * what the pool keeps between checkouts
+     */
+    private static class Session {
+    }
+
+    /**
+     * A checkout of a pooled session. Requests made on it, including
+     * transfers of its handles, are serialized on the connection.
+     */
+    private class FakeConnection implements HirodsConnection {
+
+        private Session session;
+        private volatile boolean closed = false;
+
+        FakeConnection(Session session) {
+            this.session = session;
+        }
+
+        private void request(String op, String path) throws IOException {
+            if (this.closed) {
+                throw new IOException("Connection is closed");
+            }
+            HirodsFakeBackend.this.request(op + " " + path);
+        }
+
+        @Override
+        public synchronized Entry stat(String path) throws IOException {
+            request("stat", path);
+            File file = toLocal(path);
+            if (!file.exists()) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            return toEntry(path, file);
+        }
+
+        @Override
+        public Listing listCollections(String path) throws IOException {
+            return new ChildListing(path, true);
+        }
+
+        @Override
+        public Listing listDataObjects(String path) throws IOException {
+            return new ChildListing(path, false);
+        }
+
+        @Override
+        public Listing listDataObjectsRecursive(String path) throws IOException {
+            return new TreeListing(path, false);
+        }
+
+        @Override
+        public Listing listCollectionsRecursive(String path) throws IOException {
+            return new TreeListing(path, true);
+        }
+
+        @Override
+        public synchronized boolean mkdirs(String path) throws IOException {
+            request("mkdirs", path);
+            File file = toLocal(path);
+            return file.mkdirs() || file.isDirectory();
+        }
+
+        @Override
+        public synchronized Handle openRead(String path) throws IOException {
+            request("open", path);
+            File file = toLocal(path);
+            if (!file.isFile()) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            return new FakeHandle(path, new RandomAccessFile(file, "rw"));
+        }
+
+        @Override
+        public synchronized Handle create(String path, boolean overwrite) throws IOException {
+            request("create", path);
+            File file = toLocal(path);
+            if (file.isDirectory()) {
+                throw new IOException(path + " is a collection");
+            }
+            if (!overwrite && !file.createNewFile()) {
+                throw new FileAlreadyExistsException(path + " already exists");
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            return new FakeHandle(path, raf);
+        }
+
+        @Override
+        public synchronized Handle openWrite(String path) throws IOException {
+            request("open", path);
+            File file = toLocal(path);
+            if (file.isDirectory()) {
+                throw new IOException(path + " is a collection");
+            }
+            return new FakeHandle(path, new RandomAccessFile(file, "rw"));
+        }
+
+        @Override
+        public synchronized void deleteDataObject(String path, boolean force) throws IOException {
+            request("delete", path);
+            File file = toLocal(path);
+            if (!file.isFile()) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            if (!file.delete()) {
+                throw new IOException("Cannot delete " + path);
+            }
+        }
+
+        @Override
+        public synchronized void deleteCollection(String path, boolean recursive, boolean force) throws IOException {
+            request("rmcoll", path);
+            File file = toLocal(path);
+            if (!file.isDirectory()) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            if (recursive) {
+                deleteTree(file);
+            }
+            if (!file.delete()) {
+                throw new IOException("Cannot delete " + path + (recursive ? "" : ", collection is not empty"));
+            }
+        }
+
+        private void deleteTree(File dir) {
+            for (File child : sortedChildren(dir)) {
+                if (child.isDirectory()) {
+                    deleteTree(child);
+                }
+                child.delete();
+            }
+        }
+
+        @Override
+        public synchronized void rename(String src, String dst, boolean collection) throws IOException {
+            request("rename", src);
+            File from = toLocal(src);
+            File to = toLocal(dst);
+            if (!from.exists()) {
+                throw new FileNotFoundException(src + " does not exist");
+            }
+            if (to.exists()) {
+                throw new FileAlreadyExistsException(dst + " already exists");
+            }
+            if (!to.getParentFile().isDirectory() || !from.renameTo(to)) {
+                throw new IOException("Cannot rename " + src + " to " + dst);
+            }
+        }
+
+        @Override
+        public synchronized String getChecksum(String path) throws IOException {
+            request("checksum", path);
+            File file = toLocal(path);
+            if (!file.isFile()) {
+                throw new FileNotFoundException(path + " does not exist");
+            }
+            return checksum(file);
+        }
+
+        @Override
+        public String computeChecksum(String path) throws IOException {
+            return getChecksum(path);
+        }
+
+        @Override
+        public synchronized List<String> getReplicaHosts(String path) throws IOException {
+            request("replicas", path);
+            return Collections.singletonList(host);
+        }
+
+        @Override
+        public synchronized void extractBundle(String bundle, String target) throws IOException {
+            request("extract", bundle);
+            final File localTarget = toLocal(target);
+            InputStream in = new FileInputStream(toLocal(bundle));
+            try {
+                HirodsTarUtils.extract(in, new HirodsTarUtils.EntryHandler() {
+                    @Override
+                    public void file(String name, long length, InputStream entry) throws IOException {
+                        File file = new File(localTarget, name);
+                        file.getParentFile().mkdirs();
+                        OutputStream out = new FileOutputStream(file);
+                        try {
+                            copy(entry, out);
+                        } finally {
+                            out.close();
+                        }
+                    }
+
+                    @Override
+                    public void directory(String name) throws IOException {
+                        new File(localTarget, name).mkdirs();
+                    }
+                });
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            pool.checkin(KEY, this.session);
+        }
+
+        @Override
+        public void discard() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            pool.forget(this.session);
+        }
+
+        /**
+         * A data object open on this connection.
+         */
+        private class FakeHandle implements Handle {
+
+            private String path;
+            private RandomAccessFile raf;
+            private long start = System.currentTimeMillis();
+            private long bytes = 0;
+
+            FakeHandle(String path, RandomAccessFile raf) {
+                this.path = path;
+                this.raf = raf;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                synchronized (FakeConnection.this) {
+                    checkOpen();
+                    maybeFail("read " + this.path);
+                    int result = this.raf.read(b, off, len);
+                    if (result > 0) {
+                        throttle(result);
+                    }
+                    return result;
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (FakeConnection.this) {
+                    checkOpen();
+                    maybeFail("write " + this.path);
+                    throttle(len);
+                    this.raf.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void seek(long offset) throws IOException {
+                synchronized (FakeConnection.this) {
+                    checkOpen();
+                    this.raf.seek(offset);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                synchronized (FakeConnection.this) {
+                    this.raf.close();
+                }
+            }
+
+            private void checkOpen() throws IOException {
+                if (closed) {
+                    throw new IOException("Connection is closed");
+                }
+            }
+
+            /*
+             * holds the handle to the configured bandwidth since it was
+             * opened
+             */
+            private void throttle(long len) throws IOException {
+                if (bandwidth <= 0 || len <= 0) {
+                    return;
+                }
+                this.bytes += len;
+                long due = this.start + this.bytes * 1000 / bandwidth;
+                sleep(due - System.currentTimeMillis());
+            }
+        }
+
+        /**
+         * Children of a collection, one page per request.
+         */
+        private class ChildListing implements Listing {
+
+            private String path;
+            private boolean collections;
+            private File[] children;
+            private int index = 0;
+
+            ChildListing(String path, boolean collections) {
+                this.path = path;
+                this.collections = collections;
+            }
+
+            @Override
+            public List<Entry> nextPage() throws IOException {
+                synchronized (FakeConnection.this) {
+                    if (this.children == null) {
+                        this.children = sortedChildren(toLocal(this.path));
+                    } else if (this.index >= this.children.length) {
+                        return null;
+                    }
+                    request("list", this.path);
+                    List<Entry> page = new ArrayList<Entry>();
+                    while (this.index < this.children.length && page.size() < pageSize) {
+                        File file = this.children[this.index++];
+                        if (file.isDirectory() == this.collections) {
+                            page.add(toEntry(child(this.path, file.getName()), file));
+                        }
+                    }
+                    return page;
+                }
+            }
+
+            @Override
+            public void close() {
+                this.children = new File[0];
+            }
+        }
+
+        /**
+         * Entries below a collection at any depth, walked one page per
+         * request.
+         */
+        private class TreeListing implements Listing {
+
+            private boolean collections;
+            private LinkedList<String> pending = new LinkedList<String>();
+            private LinkedList<Entry> ready = new LinkedList<Entry>();
+
+            TreeListing(String path, boolean collections) {
+                this.collections = collections;
+                this.pending.add(path);
+            }
+
+            @Override
+            public List<Entry> nextPage() throws IOException {
+                synchronized (FakeConnection.this) {
+                    if (this.pending.isEmpty() && this.ready.isEmpty()) {
+                        return null;
+                    }
+                    request("query", this.pending.isEmpty() ? "" : this.pending.getFirst());
+                    while (this.ready.size() < pageSize && !this.pending.isEmpty()) {
+                        String dir = this.pending.removeFirst();
+                        for (File file : sortedChildren(toLocal(dir))) {
+                            String path = child(dir, file.getName());
+                            if (file.isDirectory()) {
+                                this.pending.add(path);
+                            }
+                            if (file.isDirectory() == this.collections) {
+                                this.ready.add(toEntry(path, file));
+                            }
+                        }
+                    }
+                    List<Entry> page = new ArrayList<Entry>();
+                    while (page.size() < pageSize && !this.ready.isEmpty()) {
+                        page.add(this.ready.removeFirst());
+                    }
+                    return page;
+                }
+            }
+
+            @Override
+            public void close() {
+                this.pending.clear();
+                this.ready.clear();
+            }
+        }
+    }
+}
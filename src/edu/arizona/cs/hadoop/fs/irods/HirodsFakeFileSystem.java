@@ -0,0 +1,32 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A HirodsFileSystem over a stand-in grid that keeps data under a local
+ * directory, for running jobs, output formats and the committer without a
+ * live grid.
+ *
+ * Only the grid is replaced: caches, streams, connection pooling and the
+ * committer run the same code as against iRODS. The stand-in adds latency,
+ * bandwidth limits and failures as configured, see HirodsFakeBackend.
+ * Register it with "fs.irodsfake.impl" and use "irodsfake://host/zone/path"
+ * like paths.
+ */
+public class HirodsFakeFileSystem extends HirodsFileSystem {
+
+    private static final Log LOG = LogFactory.getLog(HirodsFakeFileSystem.class);
+
+    public HirodsFakeFileSystem() {
+    }
+
+    @Override
+    protected HirodsBackend createBackend(Configuration conf, String host, int port, String zone, String user, String password, HirodsMetrics metrics) throws IOException {
+        LOG.info("keeping fake iRODS data under " + HirodsConfigUtils.getIrodsFakeRoot(conf));
+        return new HirodsFakeBackend(conf, host, port, zone, metrics);
+    }
+}
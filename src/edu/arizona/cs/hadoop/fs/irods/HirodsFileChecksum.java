@@ -0,0 +1,161 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * A checksum of a data object as iRODS registers it in the catalog, either
+ * an MD5 in hex or a SHA-256 in base64 after a "sha2:" prefix.
+ */
+public class HirodsFileChecksum extends FileChecksum {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA256 = "SHA-256";
+
+    private static final String SHA256_PREFIX = "sha2:";
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private String algorithm;
+    private byte[] bytes;
+
+    public HirodsFileChecksum() {
+    }
+
+    public HirodsFileChecksum(String algorithm, byte[] bytes) {
+        this.algorithm = algorithm;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Parse a checksum string from the catalog.
+     *
+     * @return the checksum, or null if the string is empty or of an unknown
+     * scheme
+     */
+    public static HirodsFileChecksum parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        String checksum = value.trim();
+        try {
+            if (checksum.startsWith(SHA256_PREFIX)) {
+                return new HirodsFileChecksum(SHA256, decodeBase64(checksum.substring(SHA256_PREFIX.length())));
+            } else if (checksum.length() == 32) {
+                return new HirodsFileChecksum(MD5, StringUtils.hexStringToByte(checksum));
+            }
+        } catch (IllegalArgumentException ex) {
+            // fall through
+        }
+        return null;
+    }
+
+    /**
+     * @return the checksum as the catalog keeps it, the inverse of parse
+     */
+    public String toCatalogString() {
+        if (SHA256.equals(this.algorithm)) {
+            return SHA256_PREFIX + encodeBase64(this.bytes);
+        }
+        return StringUtils.byteToHexString(this.bytes);
+    }
+
+    /**
+     * @param algorithm MD5 or SHA-256
+     */
+    public static MessageDigest newDigest(String algorithm) throws IOException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("Unsupported checksum algorithm " + algorithm, ex);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return this.algorithm;
+    }
+
+    @Override
+    public int getLength() {
+        return this.bytes.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return true if the digest computed over the content matches
+     */
+    public boolean matches(String algorithm, byte[] digest) {
+        return this.algorithm.equals(algorithm) && MessageDigest.isEqual(this.bytes, digest);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Text.writeString(out, this.algorithm);
+        out.writeInt(this.bytes.length);
+        out.write(this.bytes);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        this.algorithm = Text.readString(in);
+        this.bytes = new byte[in.readInt()];
+        in.readFully(this.bytes);
+    }
+
+    @Override
+    public String toString() {
+        return this.algorithm + ":" + StringUtils.byteToHexString(this.bytes);
+    }
+
+    private static String encodeBase64(byte[] value) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < value.length; i += 3) {
+            int buffered = (value[i] & 0xff) << 16;
+            if (i + 1 < value.length) {
+                buffered |= (value[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < value.length) {
+                buffered |= value[i + 2] & 0xff;
+            }
+            for (int j = 0; j < 4; j++) {
+                if (i + j - 1 < value.length) {
+                    out.append(BASE64.charAt((buffered >> (18 - 6 * j)) & 0x3f));
+                } else {
+                    out.append('=');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static byte[] decodeBase64(String value) {
+        String s = value.replace("=", "");
+        byte[] out = new byte[s.length() * 3 / 4];
+        int bits = 0;
+        int buffered = 0;
+        int idx = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int v = BASE64.indexOf(s.charAt(i));
+            if (v < 0) {
+                throw new IllegalArgumentException("Invalid base64 " + value);
+            }
+            buffered = (buffered << 6) | v;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[idx++] = (byte) (buffered >> bits);
+            }
+        }
+        return out;
+    }
+}
@@ -1,39 +1,59 @@
 package edu.arizona.cs.hadoop.fs.irods;
 
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.util.Progressable;
-import org.irods.jargon.core.connection.IRODSAccount;
-import org.irods.jargon.core.connection.auth.AuthResponse;
-import org.irods.jargon.core.exception.AuthenticationException;
-import org.irods.jargon.core.exception.JargonException;
-import org.irods.jargon.core.exception.NoResourceDefinedException;
-import org.irods.jargon.core.pub.IRODSFileSystem;
-import org.irods.jargon.core.pub.io.IRODSFile;
-import org.irods.jargon.core.pub.io.IRODSFileFactory;
 
-public class HirodsFileSystem extends FileSystem {
+public class HirodsFileSystem extends FileSystem implements HirodsBundleExtractor {
 
     private static final Log LOG = LogFactory.getLog(HirodsFileSystem.class);
     
+    private static final int MAX_KNOWN_COLLECTIONS = 1024;
+    
     private URI uri;
-    private IRODSFileSystem irodsFS;
-    private IRODSAccount irodsAccount;
+    private HirodsBackend backend;
+    private HirodsMetadataCache metadataCache;
+    private HirodsMetrics metrics;
+    private HirodsDiskCache diskCache;
     private Path workingDir;
+    private long defaultBlockSize;
+    private List<String> blockSizePathPrefixes = new ArrayList<String>();
+    private List<Long> blockSizePathValues = new ArrayList<Long>();
+    private ThreadLocal<Lease> leases = new ThreadLocal<Lease>();
+    // collections this instance created or saw, so create() can skip mkdirs
+    private LinkedHashMap<String, Boolean> knownCollections = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_KNOWN_COLLECTIONS;
+        }
+    };
 
     public HirodsFileSystem() {
     }
@@ -63,26 +83,19 @@ public class HirodsFileSystem extends FileSystem {
         }
         HirodsConfigUtils.setIrodsPort(conf, port);
         
+        String user = HirodsConfigUtils.getIrodsUsername(conf);
+        String password = HirodsConfigUtils.getIrodsPassword(conf);
         String userAndPass = uri.getUserInfo();
-        if (userAndPass == null) {
-            String user = HirodsConfigUtils.getIrodsUsername(conf);
-            String pass = HirodsConfigUtils.getIrodsPassword(conf);
-            
-            if(user == null || pass == null) {
-                throw new IOException("invalid user and password specified"); 
+        if (userAndPass != null) {
+            String[] userAndPassArr = userAndPass.split(":");
+            user = null;
+            password = null;
+            if(userAndPassArr.length > 1) {
+                user = userAndPassArr[0];
+                HirodsConfigUtils.setIrodsUsername(conf, user);
+                password = userAndPassArr[1];
+                HirodsConfigUtils.setIrodsPassword(conf, password);
             }
-            
-            userAndPass = HirodsConfigUtils.getIrodsUsername(conf) + ":" + HirodsConfigUtils.getIrodsPassword(conf);
-        }
-        
-        String[] userAndPassArr = userAndPass.split(":");
-        String user = null;
-        String password = null;
-        if(userAndPassArr.length > 1) {
-            user = userAndPassArr[0];
-            HirodsConfigUtils.setIrodsUsername(conf, user);
-            password = userAndPassArr[1];
-            HirodsConfigUtils.setIrodsPassword(conf, password);
         }
         
         String zone = null;
@@ -98,77 +111,63 @@ public class HirodsFileSystem extends FileSystem {
         }
         HirodsConfigUtils.setIrodsZone(conf, zone);
         
-        if (this.irodsFS == null) {
+        if (this.backend == null) {
             
             LOG.info("connecting to iRODS");
             
-            try {
-                this.irodsFS = IRODSFileSystem.instance();
-            } catch (JargonException ex) {
-                throw new IOException(ex);
-            }
-            this.irodsAccount = createIRODSAccount(host, port, zone, user, password);
-            
-            AuthResponse response;
-            try {
-                response = connectIRODS(this.irodsFS, this.irodsAccount);
-            } catch (AuthenticationException ex) {
-                LOG.error(ex);
-                throw new IOException(ex);
-            } catch (JargonException ex) {
-                throw new IOException(ex);
-            }
-            
-            if(!response.isSuccessful()) {
-                throw new IOException("Cannot authenticate to IRODS");
+            this.metrics = new HirodsMetrics(host, HirodsConfigUtils.getIrodsMetricsLogInterval(conf));
+            this.backend = createBackend(conf, host, port, zone, user, password, this.metrics);
+        }
+        
+        this.metadataCache = new HirodsMetadataCache(HirodsConfigUtils.getIrodsMetadataCacheSize(conf),
+                HirodsConfigUtils.getIrodsMetadataCacheTTL(conf), HirodsConfigUtils.getIrodsMetadataCacheNegativeTTL(conf));
+        this.metrics.setMetadataCache(this.metadataCache);
+        
+        String diskCacheDir = HirodsConfigUtils.getIrodsInputDiskCacheDir(conf);
+        if (diskCacheDir != null && !diskCacheDir.isEmpty()) {
+            this.diskCache = new HirodsDiskCache(new File(diskCacheDir), HirodsConfigUtils.getIrodsInputDiskCacheSize(conf),
+                    HirodsConfigUtils.getIrodsInputDiskCacheMaxObjectSize(conf));
+        }
+        
+        this.defaultBlockSize = HirodsConfigUtils.getIrodsBlockSize(conf);
+        for(String entry : HirodsConfigUtils.getIrodsBlockSizePaths(conf)) {
+            int idx = entry.lastIndexOf('=');
+            if(idx <= 0) {
+                throw new IOException("invalid block size entry specified : " + entry);
             }
+            this.blockSizePathPrefixes.add(entry.substring(0, idx).trim());
+            this.blockSizePathValues.add(Long.parseLong(entry.substring(idx + 1).trim()));
         }
         
         setConf(conf);
         this.uri = uri;
-        this.workingDir = new Path(this.irodsAccount.getHomeDirectory()).makeQualified(this);
-    }
-    
-    private static String makeDefaultHome(String zone) {
-        String defaultdir = "/" + zone.trim();
-        return defaultdir;
-    }
-    
-    private static String makeDefaultStorageResource() {
-        return "";
+        this.workingDir = new Path(this.backend.getHomeDirectory()).makeQualified(this);
     }
     
-    private static IRODSAccount createIRODSAccount(String host, int port, String zone, String user, String password) throws IOException {
-        IRODSAccount account = null;
-        String home = makeDefaultHome(zone);
-        String resource = makeDefaultStorageResource();
-        
-        try {
-            //LOG.info("IRODS Account Info - host : " + host);
-            //LOG.info("IRODS Account Info - port : " + port);
-            //LOG.info("IRODS Account Info - zone : " + zone);
-            //LOG.info("IRODS Account Info - user : " + user);
-            //LOG.info("IRODS Account Info - password : " + password);
-            //LOG.info("IRODS Account Info - home : " + home);
-            //LOG.info("IRODS Account Info - resource : " + resource);
-            
-            account = IRODSAccount.instance(host, port, user, password, home, zone, resource);
-            return account;
-        } catch (JargonException ex) {
-            throw new IOException(ex);
-        }
-    }
-    
-    private static AuthResponse connectIRODS(IRODSFileSystem fs, IRODSAccount account) throws AuthenticationException, JargonException {
-        return fs.getIRODSAccessObjectFactory().authenticateIRODSAccount(account);
+    /**
+     * Make the grid this file system talks to, authenticating if it needs
+     * to. Subclasses put other grids behind the same file system code.
+     *
+     * @param metrics receives the time taken to hand out connections
+     */
+    protected HirodsBackend createBackend(Configuration conf, String host, int port, String zone, String user, String password, HirodsMetrics metrics) throws IOException {
+        return new HirodsJargonBackend(conf, host, port, zone, user, password, metrics);
     }
     
-    private IRODSFileFactory getIRODSFileFactory() throws IOException {
-        try {
-            return this.irodsFS.getIRODSFileFactory(this.irodsAccount);
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+    /**
+     * Operations and streams opened by a thread share one connection. The
+     * lease is counted on that connection rather than on the thread, so a
+     * stream closed on another thread releases exactly the lease it holds,
+     * and the connection goes back to the pool once every holder released
+     * it.
+     */
+    private Lease leaseConnection() throws IOException {
+        Lease lease = this.leases.get();
+        if(lease == null || !lease.retain()) {
+            lease = new Lease(this.backend.connect());
+            this.leases.set(lease);
         }
+        return lease;
     }
     
     @Override
@@ -193,61 +192,130 @@ public class HirodsFileSystem extends FileSystem {
         return new Path(this.workingDir, path);
     }
     
-    private IRODSFile makeIrodsPath(Path path) throws IOException {
-        Path absolutePath = makeAbsolute(path);
-        return createIrodsPath(absolutePath.toUri());
+    private String toIrodsPath(Path path) {
+        return makeAbsolute(path).toUri().getPath();
     }
     
-    private IRODSFile createIrodsPath(IRODSFile path, String name) throws IOException {
+    @Override
+    public boolean mkdirs(Path path, FsPermission permission) throws IOException {
+        this.statistics.incrementWriteOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
         try {
-            return getIRODSFileFactory().instanceIRODSFile(path.getPath(), name);
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+            return makeCollections(connection, toIrodsPath(path));
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_MKDIRS, start);
+            lease.release();
         }
     }
     
-    private IRODSFile createIrodsPath(URI uri) throws IOException {
-        return createIrodsPath(uri.getPath());
-    }
-    
-    private IRODSFile createIrodsPath(String path) throws IOException {
+    /*
+     * mkdirs for operations that already counted themselves
+     */
+    private boolean makeCollections(HirodsConnection connection, String path) throws IOException {
         try {
-            return getIRODSFileFactory().instanceIRODSFile(path);
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+            boolean created = connection.mkdirs(path);
+            if (created) {
+                rememberCollection(path);
+            }
+            return created;
+        } finally {
+            this.metadataCache.invalidateWithAncestors(path);
         }
     }
     
-    @Override
-    public boolean mkdirs(Path path, FsPermission permission) throws IOException {
-        IRODSFile ipath = makeIrodsPath(path);
-        return ipath.mkdirs();
-    }
-    
     @Override
     public boolean isFile(Path path) throws IOException {
-        IRODSFile ipath = makeIrodsPath(path);
-        return ipath.isFile();
+        try {
+            return !getFileStatus(path).isDir();
+        } catch (FileNotFoundException ex) {
+            return false;
+        }
     }
     
     @Override
     public FileStatus[] listStatus(Path f) throws IOException {
-        IRODSFile ipath = makeIrodsPath(f);
-        if(!ipath.exists()) {
-            return null;
+        this.statistics.incrementReadOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            String path = toIrodsPath(f);
+            
+            FileStatus status;
+            try {
+                status = getStatus(connection, f);
+            } catch (FileNotFoundException ex) {
+                return null;
+            }
+            
+            if(!status.isDir()) {
+                return new FileStatus[]{
+                    status
+                };
+            }
+            
+            // names, sizes and times of all children come from paged
+            // catalog queries instead of stat calls per child
+            List<FileStatus> ret = new ArrayList<FileStatus>();
+            addListing(f, connection.listCollections(path), ret);
+            addListing(f, connection.listDataObjects(path), ret);
+            return ret.toArray(new FileStatus[0]);
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_LIST, start);
+            lease.release();
         }
-        
-        if(ipath.isFile()) {
-            return new FileStatus[]{
-                new IrodsFileStatus(f.makeQualified(this), ipath)
-            };
+    }
+    
+    private void addListing(Path parent, HirodsConnection.Listing listing, List<FileStatus> statuses) throws IOException {
+        try {
+            List<HirodsConnection.Entry> entries = listing.nextPage();
+            while(entries != null) {
+                addListingEntries(parent, entries, statuses);
+                entries = listing.nextPage();
+                if(entries != null) {
+                    // every further page is another catalog query
+                    this.statistics.incrementLargeReadOps(1);
+                }
+            }
+        } finally {
+            listing.close();
         }
-        
-        List<FileStatus> ret = new ArrayList<FileStatus>();
-        for (String p : ipath.list()) {
-            ret.add(getFileStatus(new Path(f, p)));
+    }
+    
+    private void addListingEntries(Path parent, List<HirodsConnection.Entry> entries, List<FileStatus> statuses) {
+        for(HirodsConnection.Entry entry : entries) {
+            String name = entry.getPath().substring(entry.getPath().lastIndexOf('/') + 1);
+            if(name.isEmpty()) {
+                continue;
+            }
+            
+            Path child = new Path(parent, name).makeQualified(this);
+            String childPath = child.toUri().getPath();
+            FileStatus status = new IrodsFileStatus(child, entry, getBlockSize(childPath));
+            this.metadataCache.put(childPath, status);
+            statuses.add(status);
         }
-        return ret.toArray(new FileStatus[0]);
+    }
+    
+    /**
+     * List all data objects under the path, at any depth. Entries are
+     * fetched page by page from catalog queries over the path prefix, so
+     * memory use does not grow with the size of the subtree. The iterator
+     * holds a connection of its own until it is exhausted or closed, and
+     * may be used and closed from any thread.
+     */
+    public RecursiveFileStatusIterator listFilesRecursive(Path f) throws IOException {
+        this.statistics.incrementReadOps(1);
+        return new RecursiveFileStatusIterator(f);
+    }
+    
+    /*
+     * listFilesRecursive for operations that already counted themselves
+     */
+    RecursiveFileStatusIterator iterateFiles(Path f) throws IOException {
+        return new RecursiveFileStatusIterator(f);
     }
     
     /**
@@ -260,108 +328,448 @@ public class HirodsFileSystem extends FileSystem {
     
     @Override
     public FSDataOutputStream create(Path file, FsPermission permission, boolean overwrite, int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
-        IRODSFile ipath = makeIrodsPath(file);
-        if(ipath.exists()) {
-            if (overwrite) {
-                delete(file);
-            } else {
-                throw new IOException("File already exists: " + file);
+        // one write operation for the stream, however many segments it has
+        this.statistics.incrementWriteOps(1);
+        long segmentSize = HirodsConfigUtils.getIrodsOutputSegmentSize(getConf());
+        long segmentInterval = HirodsConfigUtils.getIrodsOutputSegmentInterval(getConf());
+        if(segmentSize > 0 || segmentInterval > 0) {
+            return new FSDataOutputStream(new HirodsSegmentedOutputStream(this, file, overwrite, bufferSize, segmentSize, segmentInterval), this.statistics);
+        }
+        return new FSDataOutputStream(createStream(file, overwrite, bufferSize, false), this.statistics);
+    }
+    
+    /**
+     * @param ownConnection write over a connection of the stream's own
+     * instead of the one the calling thread shares
+     */
+    OutputStream createStream(Path file, boolean overwrite, int bufferSize, boolean ownConnection) throws IOException {
+        long start = System.nanoTime();
+        Lease lease = ownConnection ? new Lease(this.backend.connect()) : leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        boolean leased = false;
+        try {
+            String path = toIrodsPath(file);
+            if (isKnownCollection(path)) {
+                throw new IOException("Cannot overwrite a collection: " + file);
+            }
+            
+            HirodsMetadataCache.CacheEntry cached = this.metadataCache.get(path);
+            if (cached != null && cached.exists() && cached.getStatus().isDir()) {
+                throw new IOException("Cannot overwrite a collection: " + file);
             }
-        } else {
             Path parent = file.getParent();
-            if(parent != null) {
-                if (!mkdirs(parent)) {
+            boolean parentChecked = false;
+            if (overwrite) {
+                // a cached status saves the existence probe, an existing data
+                // object is replaced by the stream itself
+                boolean exists;
+                if (cached != null) {
+                    exists = cached.exists();
+                } else {
+                    HirodsConnection.Entry entry = null;
+                    try {
+                        entry = connection.stat(path);
+                    } catch (FileNotFoundException ex) {
+                        // a new data object
+                    }
+                    exists = entry != null;
+                    if (exists && entry.isCollection()) {
+                        throw new IOException("Cannot overwrite a collection: " + file);
+                    }
+                }
+                if (!exists && parent != null && !isKnownCollection(toIrodsPath(parent))) {
+                    if (!makeCollections(connection, toIrodsPath(parent))) {
+                        throw new IOException("Mkdirs failed to create " + parent.toString());
+                    }
+                    parentChecked = true;
+                }
+            }
+            // without overwrite the server checks the path as it creates the
+            // data object, a cached absence may be outdated by now
+
+            int bSize = Math.max(HirodsConfigUtils.getIrodsOutputBufferSize(getConf()), bufferSize);
+            int maxBSize = HirodsConfigUtils.getIrodsOutputBufferMaxSize(getConf());
+            HirodsConnection.Handle handle;
+            try {
+                handle = connection.create(path, overwrite);
+            } catch (FileAlreadyExistsException ex) {
+                throw new FileAlreadyExistsException("File already exists: " + file);
+            } catch (IOException ex) {
+                if (parentChecked || parent == null) {
+                    throw ex;
+                }
+                // the parent is missing, or the remembered parent may have
+                // been removed by others
+                forgetCollections(toIrodsPath(parent));
+                if (!makeCollections(connection, toIrodsPath(parent))) {
                     throw new IOException("Mkdirs failed to create " + parent.toString());
                 }
+                handle = connection.create(path, overwrite);
+            }
+            if (parent != null) {
+                rememberCollection(toIrodsPath(parent));
+            }
+            OutputStream os = new LeasedOutputStream(new HandleOutputStream(handle), bSize, maxBSize, path, lease);
+            // the stream keeps the lease until it is closed
+            leased = true;
+            return os;
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_CREATE, start);
+            this.metadataCache.invalidateWithAncestors(toIrodsPath(file));
+            if(!leased) {
+                lease.release();
             }
         }
-        
-        int bSize = Math.max(HirodsConfigUtils.getIrodsOutputBufferSize(getConf()), bufferSize);
+    }
+    
+    private void rememberCollection(String path) {
+        synchronized (this.knownCollections) {
+            this.knownCollections.put(path, Boolean.TRUE);
+        }
+    }
+    
+    private boolean isKnownCollection(String path) {
+        synchronized (this.knownCollections) {
+            return this.knownCollections.containsKey(path);
+        }
+    }
+    
+    /*
+     * drop the path and everything under it, after it was deleted or moved
+     */
+    private void forgetCollections(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (this.knownCollections) {
+            this.knownCollections.remove(path);
+            Iterator<String> iter = this.knownCollections.keySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().startsWith(prefix)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Open a data object for writing from the given offset, keeping the bytes
+     * before it. The object is created if missing. Several streams may
+     * write disjoint ranges of the same object concurrently from different
+     * threads.
+     */
+    public FSDataOutputStream openForWrite(Path file, long offset, int bufferSize) throws IOException {
+        this.statistics.incrementWriteOps(1);
+        return new FSDataOutputStream(openStreamForWrite(file, offset, bufferSize, false), this.statistics);
+    }
+    
+    /**
+     * @param ownConnection write over a connection of the stream's own
+     * instead of the one the calling thread shares
+     */
+    OutputStream openStreamForWrite(Path file, long offset, int bufferSize, boolean ownConnection) throws IOException {
+        Lease lease = ownConnection ? new Lease(this.backend.connect()) : leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        boolean leased = false;
         try {
-            //return new FSDataOutputStream(new BufferedOutputStream(this.irodsFileFactory.instanceIRODSFileOutputStream(ipath), bSize), this.statistics);
-            return new FSDataOutputStream(new BufferedOutputStream(getIRODSFileFactory().instanceIRODSFileOutputStream(ipath), bSize), this.statistics);
-        } catch (NoResourceDefinedException ex) {
-            throw new IOException("Cannot get output stream from " + file);
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+            String path = toIrodsPath(file);
+            HirodsConnection.Handle handle = connection.openWrite(path);
+            try {
+                handle.seek(offset);
+            } catch (IOException ex) {
+                handle.close();
+                throw ex;
+            }
+            
+            int bSize = Math.max(HirodsConfigUtils.getIrodsOutputBufferSize(getConf()), bufferSize);
+            OutputStream os = new LeasedOutputStream(new HandleOutputStream(handle), bSize, HirodsConfigUtils.getIrodsOutputBufferMaxSize(getConf()), path, lease);
+            // the stream keeps the lease until it is closed
+            leased = true;
+            return os;
+        } finally {
+            this.metadataCache.invalidateWithAncestors(toIrodsPath(file));
+            if(!leased) {
+                lease.release();
+            }
         }
     }
     
+    /**
+     * The length and modification time the stream reads up to, and that key
+     * the block and disk caches, come from a fresh stat rather than the
+     * metadata cache, so an object rewritten by another client is never read
+     * short or served from stale cached blocks. The stat replaces the cached
+     * status of the path.
+     */
     @Override
     public FSDataInputStream open(Path path, int bufferSize) throws IOException {
-        IRODSFile ipath = makeIrodsPath(path);
-        if (!ipath.exists()) {
-            throw new IOException("No such file.");
+        this.statistics.incrementReadOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        boolean leased = false;
+        try {
+            FileStatus status;
+            try {
+                status = fetchStatus(connection, path);
+            } catch (FileNotFoundException ex) {
+                throw new IOException("No such file.");
+            }
+            if (status.isDir()) {
+                throw new IOException("Path " + path + " is a directory.");
+            }
+            String ipath = toIrodsPath(path);
+            int bSize = Math.max(HirodsConfigUtils.getIrodsInputBufferSize(getConf()), bufferSize);
+            FSDataInputStream cached = openFromDiskCache(connection, ipath, status, bSize);
+            if (cached != null) {
+                return cached;
+            }
+            FSDataInputStream is = new FSDataInputStream(new LeasedInputStream(new HirodsInputStream(getConf(), this.backend, connection, ipath, status.getLen(), status.getModificationTime(), this.statistics), bSize, HirodsConfigUtils.getIrodsInputBufferMaxSize(getConf()), HirodsConfigUtils.getIrodsInputReadaheadDepth(getConf()), lease));
+            // the stream keeps the lease until it is closed
+            leased = true;
+            return is;
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_OPEN, start);
+            if(!leased) {
+                lease.release();
+            }
         }
-        if (ipath.isDirectory()) {
-            throw new IOException("Path " + path + " is a directory.");
+    }
+
+    /*
+     * open the local copy of a data object, copying it to the disk cache
+     * first if needed. returns null if the object is not cacheable.
+     */
+    private FSDataInputStream openFromDiskCache(final HirodsConnection connection, final String ipath, final FileStatus status, final int bufferSize) throws IOException {
+        if (this.diskCache == null || status.getModificationTime() <= 0 || !this.diskCache.isCacheable(status.getLen())) {
+            return null;
+        }
+        
+        String key = HirodsBlockCache.makeObjectKey(this.backend.getHost(), this.backend.getPort(), ipath);
+        File local;
+        try {
+            local = this.diskCache.get(key, status.getLen(), status.getModificationTime(), new HirodsDiskCache.Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return new HirodsBufferedInputStream(new HirodsInputStream(getConf(), backend, connection, ipath, status.getLen(), statistics), bufferSize);
+                }
+            });
+        } catch (IOException ex) {
+            LOG.warn("Failed to cache " + ipath + " on local disk", ex);
+            return null;
+        }
+        
+        try {
+            return FileSystem.getLocal(getConf()).getRaw().open(new Path(local.getAbsolutePath()), bufferSize);
+        } catch (FileNotFoundException ex) {
+            // evicted by another process in the meantime
+            return null;
         }
-        int bSize = Math.max(HirodsConfigUtils.getIrodsInputBufferSize(getConf()), bufferSize);
-        return new FSDataInputStream(new HirodsBufferedInputStream(new HirodsInputStream(getConf(), ipath, this.irodsFS, getIRODSFileFactory(), this.statistics), bSize));
     }
 
     @Override
     public boolean rename(Path src, Path dst) throws IOException {
-        IRODSFile isrc = makeIrodsPath(src);
-        IRODSFile idst = makeIrodsPath(dst);
-        
-        if (!isrc.exists()) {
-            // src path doesn't exist
-            return false;
+        this.statistics.incrementWriteOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            String isrc = toIrodsPath(src);
+            String idst = toIrodsPath(dst);
+
+            FileStatus srcStatus;
+            try {
+                srcStatus = getStatus(connection, src);
+            } catch (FileNotFoundException ex) {
+                // src path doesn't exist
+                return false;
+            }
+            try {
+                if (getStatus(connection, dst).isDir()) {
+                    idst = toIrodsPath(new Path(dst, src.getName()));
+                } else {
+                    // dst path already exists - can't overwrite
+                    return false;
+                }
+            } catch (FileNotFoundException ex) {
+                // rename to a new name
+            }
+
+            // one server side move, the server checks the destination and
+            // its parent
+            try {
+                connection.rename(isrc, idst, srcStatus.isDir());
+                return true;
+            } catch (IOException ex) {
+                LOG.debug("Failed to rename " + src + " to " + dst, ex);
+                return false;
+            } finally {
+                this.metadataCache.invalidateTree(isrc);
+                this.metadataCache.invalidateTree(idst);
+                forgetCollections(isrc);
+                this.metadataCache.invalidateWithAncestors(idst);
+            }
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_RENAME, start);
+            lease.release();
         }
-        if (idst.isDirectory()) {
-            idst = createIrodsPath(idst, isrc.getName());
+    }
+    
+    private boolean deleteAll(HirodsConnection connection, String path, boolean force) throws IOException {
+        HirodsConnection.Entry entry;
+        try {
+            entry = connection.stat(path);
+        } catch (FileNotFoundException ex) {
+            return true;
         }
-        if (idst.exists()) {
-            // dst path already exists - can't overwrite
+        try {
+            if(!entry.isCollection()) {
+                // remove file
+                connection.deleteDataObject(path, force);
+                return true;
+            }
+            List<HirodsConnection.Entry> children = new ArrayList<HirodsConnection.Entry>();
+            collectListing(connection.listCollections(path), children);
+            collectListing(connection.listDataObjects(path), children);
+            boolean emptied = true;
+            for(HirodsConnection.Entry child : children) {
+                emptied &= deleteAll(connection, child.getPath(), force);
+            }
+            if(!emptied) {
+                // keep what could not be deleted
+                return false;
+            }
+            // remove dir, only if nothing was added in the meantime
+            connection.deleteCollection(path, false, force);
+            return true;
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            LOG.debug("Failed to delete " + path, ex);
             return false;
         }
-        
-        IRODSFile idstParent = createIrodsPath(idst.getParent());
-        if(idstParent != null) {
-            if (!idstParent.exists() || idstParent.isFile()) {
-                // dst parent doesn't exist or is a file
-                return false;
+    }
+    
+    private static void collectListing(HirodsConnection.Listing listing, List<HirodsConnection.Entry> entries) throws IOException {
+        try {
+            List<HirodsConnection.Entry> page;
+            while((page = listing.nextPage()) != null) {
+                entries.addAll(page);
             }
+        } finally {
+            listing.close();
         }
-        
-        return isrc.renameTo(idst);
     }
     
-    private boolean deleteAll(IRODSFile path) throws IOException {
-        if(path.isFile()) {
-            // remove file
-            return path.delete();
-        } else if(path.isDirectory()) {
-            String[] entries = path.list();
-            if(entries != null) {
-                for(String entry : entries) {
-                    IRODSFile entry_file = createIrodsPath(path, entry);
-                    deleteAll(entry_file);
+    /*
+     * client side removal of a collection tree, with worker threads if
+     * configured
+     */
+    private boolean deleteEntries(HirodsConnection connection, String path, DeleteProgress progress) throws IOException {
+        // the calling thread keeps a connection for the listing
+        int threads = Math.min(HirodsConfigUtils.getIrodsDeleteThreads(getConf()), HirodsConfigUtils.getIrodsConnectionPoolMaxActive(getConf()) - 1);
+        boolean force = HirodsConfigUtils.getIrodsDeleteForce(getConf());
+        if (threads < 1 || (threads == 1 && progress == null)) {
+            return deleteAll(connection, path, force);
+        }
+        HirodsParallelDelete parallelDelete = new HirodsParallelDelete(this.backend, connection, force, threads, progress);
+        parallelDelete.delete(path);
+        return true;
+    }
+    
+    /**
+     * Delete a collection tree entry by entry, without a server side
+     * recursive delete. Data objects are removed by
+     * "fs.irods.delete.threads" workers, collections afterwards, deepest
+     * first.
+     *
+     * @param progress notified as entries are deleted, may be null
+     * @throws IOException naming the entries that could not be deleted
+     */
+    public boolean deleteTree(Path path, DeleteProgress progress) throws IOException {
+        this.statistics.incrementWriteOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            String ipath = toIrodsPath(path);
+            this.metadataCache.invalidateTree(ipath);
+            FileStatus status;
+            try {
+                status = getStatus(connection, path);
+            } catch (FileNotFoundException ex) {
+                return false;
+            }
+            if (!status.isDir()) {
+                try {
+                    connection.deleteDataObject(ipath, HirodsConfigUtils.getIrodsDeleteForce(getConf()));
+                    return true;
+                } catch (FileNotFoundException ex) {
+                    return false;
                 }
             }
-            // remove dir
-            return path.delete();
+            return deleteEntries(connection, ipath, progress);
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_DELETE, start);
+            this.metadataCache.invalidateTree(toIrodsPath(path));
+            forgetCollections(toIrodsPath(path));
+            lease.release();
         }
-        return true;
     }
     
     @Override
     public boolean delete(Path path, boolean recursive) throws IOException {
-        IRODSFile ipath = makeIrodsPath(path);
-        if (!ipath.exists()) {
-            return false;
-        }
-        
-        if (ipath.isFile()) {
-            return ipath.delete();
-        } else {
-            // directory?
-            if(recursive) {
-                return deleteAll(ipath);
-            } else {
-                return ipath.delete();
+        this.statistics.incrementWriteOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            String ipath = toIrodsPath(path);
+            // do not trust a cached status for what is about to be removed
+            this.metadataCache.invalidateTree(ipath);
+            FileStatus status;
+            try {
+                status = getStatus(connection, path);
+            } catch (FileNotFoundException ex) {
+                return false;
+            }
+
+            boolean force = HirodsConfigUtils.getIrodsDeleteForce(getConf());
+            try {
+                if (!status.isDir()) {
+                    connection.deleteDataObject(ipath, force);
+                    return true;
+                } else if(!recursive) {
+                    // only an empty collection goes without recursion
+                    try {
+                        connection.deleteCollection(ipath, false, force);
+                        return true;
+                    } catch (FileNotFoundException ex) {
+                        throw ex;
+                    } catch (IOException ex) {
+                        LOG.debug("Failed to delete " + path, ex);
+                        return false;
+                    }
+                } else if(HirodsConfigUtils.getIrodsDeleteServerSide(getConf())) {
+                    // the server removes the whole collection in one call
+                    try {
+                        connection.deleteCollection(ipath, true, force);
+                        return true;
+                    } catch (FileNotFoundException ex) {
+                        return false;
+                    } catch (IOException ex) {
+                        LOG.warn("Server side delete of " + path + " failed, deleting entries one by one", ex);
+                        return deleteEntries(connection, ipath, null);
+                    }
+                } else {
+                    return deleteEntries(connection, ipath, null);
+                }
+            } catch (FileNotFoundException ex) {
+                return false;
             }
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_DELETE, start);
+            this.metadataCache.invalidateTree(toIrodsPath(path));
+            forgetCollections(toIrodsPath(path));
+            lease.release();
         }
     }
     
@@ -370,47 +778,555 @@ public class HirodsFileSystem extends FileSystem {
         return delete(path, true);
     }
 
+    /**
+     * A status answered from the metadata cache is not counted as a read
+     * operation, only the stat calls sent to the grid are.
+     */
     @Override
     public FileStatus getFileStatus(Path f) throws IOException {
-        IRODSFile ipath = makeIrodsPath(f);
-        if(!ipath.exists()) {
-            throw new FileNotFoundException(f + ": No such file or directory.");
+        FileStatus cached = getCachedStatus(f);
+        if(cached != null) {
+            return cached;
         }
         
-        return new IrodsFileStatus(f.makeQualified(this), ipath);
+        this.statistics.incrementReadOps(1);
+        Lease lease = leaseConnection();
+        try {
+            return fetchStatus(lease.getConnection(), f);
+        } finally {
+            lease.release();
+        }
+    }
+    
+    /*
+     * getFileStatus for operations that already counted themselves
+     */
+    private FileStatus getStatus(HirodsConnection connection, Path f) throws IOException {
+        FileStatus cached = getCachedStatus(f);
+        if(cached != null) {
+            return cached;
+        }
+        return fetchStatus(connection, f);
+    }
+    
+    /*
+     * returns null if the cache knows nothing about the path
+     */
+    private FileStatus getCachedStatus(Path f) throws FileNotFoundException {
+        HirodsMetadataCache.CacheEntry cached = this.metadataCache.get(toIrodsPath(f));
+        if(cached == null) {
+            return null;
+        }
+        if(!cached.exists()) {
+            throw new FileNotFoundException(f + ": No such file or directory.");
+        }
+        return cached.getStatus();
+    }
+    
+    private FileStatus fetchStatus(HirodsConnection connection, Path f) throws IOException {
+        String path = toIrodsPath(f);
+        long start = System.nanoTime();
+        try {
+            HirodsConnection.Entry entry;
+            try {
+                entry = connection.stat(path);
+            } catch (FileNotFoundException ex) {
+                this.metadataCache.putNegative(path);
+                throw new FileNotFoundException(f + ": No such file or directory.");
+            }
+            
+            FileStatus status = new IrodsFileStatus(f.makeQualified(this), entry, getBlockSize(path));
+            this.metadataCache.put(path, status);
+            return status;
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_STAT, start);
+        }
+    }
+    
+    /**
+     * Unpack a tar bundle with an iRODS bulk extraction. The server
+     * registers every entry, so many small files take one request.
+     */
+    @Override
+    public void extractBundle(Path bundle, Path target) throws IOException {
+        this.statistics.incrementWriteOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            connection.extractBundle(toIrodsPath(bundle), toIrodsPath(target));
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_EXTRACT, start);
+            this.metadataCache.invalidateTree(toIrodsPath(target));
+            this.metadataCache.invalidateWithAncestors(toIrodsPath(target));
+            lease.release();
+        }
+    }
+    
+    public HirodsMetrics getMetrics() {
+        return this.metrics;
     }
     
     @Override
     public long getDefaultBlockSize() {
-        return IrodsFileStatus.DEFAULT_IRODS_BLOCKSIZE;
+        return this.defaultBlockSize;
+    }
+    
+    /**
+     * Block size advertised for the path. The longest matching prefix in
+     * fs.irods.block.size.paths wins over the default block size.
+     */
+    private long getBlockSize(String path) {
+        long blockSize = this.defaultBlockSize;
+        int matched = -1;
+        for(int i=0;i<this.blockSizePathPrefixes.size();i++) {
+            String prefix = this.blockSizePathPrefixes.get(i);
+            if(prefix.length() > matched && isPathPrefix(prefix, path)) {
+                matched = prefix.length();
+                blockSize = this.blockSizePathValues.get(i);
+            }
+        }
+        return blockSize;
+    }
+    
+    private static boolean isPathPrefix(String prefix, String path) {
+        if(prefix.endsWith("/")) {
+            return path.startsWith(prefix);
+        }
+        return path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+    
+    /**
+     * Every replica of a data object is a full copy, so each block is
+     * located at the hosts of all resources holding a replica.
+     */
+    @Override
+    public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        if (start < 0 || len < 0) {
+            throw new IllegalArgumentException("Invalid start or len parameter");
+        }
+        if (file.getLen() <= start) {
+            return new BlockLocation[0];
+        }
+        
+        String[] hosts = getReplicaHosts(file.getPath());
+        String[] names = new String[hosts.length];
+        for(int i=0;i<hosts.length;i++) {
+            names[i] = hosts[i] + ":" + HirodsConfigUtils.getIrodsPort(getConf());
+        }
+        
+        long blockSize = Math.max(1, file.getBlockSize());
+        long end = Math.min(start + len, file.getLen());
+        List<BlockLocation> locations = new ArrayList<BlockLocation>();
+        for(long offset = (start / blockSize) * blockSize; offset < end; offset += blockSize) {
+            long length = Math.min(blockSize, file.getLen() - offset);
+            locations.add(new BlockLocation(names, hosts, offset, length));
+        }
+        return locations.toArray(new BlockLocation[0]);
+    }
+    
+    private String[] getReplicaHosts(Path path) throws IOException {
+        this.statistics.incrementReadOps(1);
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            return connection.getReplicaHosts(toIrodsPath(path)).toArray(new String[0]);
+        } finally {
+            lease.release();
+        }
+    }
+    
+    /**
+     * Checksum registered in the catalog, so tools like distcp -update can
+     * compare data objects without reading them.
+     *
+     * @return the checksum, or null for a collection or if none is
+     * registered
+     * @throws FileNotFoundException if nothing is at the path
+     */
+    @Override
+    public FileChecksum getFileChecksum(Path f) throws IOException {
+        this.statistics.incrementReadOps(1);
+        long start = System.nanoTime();
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            if (getStatus(connection, f).isDir()) {
+                return null;
+            }
+            return HirodsFileChecksum.parse(connection.getChecksum(toIrodsPath(f)));
+        } finally {
+            this.metrics.record(HirodsMetrics.OP_STAT, start);
+            lease.release();
+        }
+    }
+    
+    /**
+     * Have the server compute the checksum of a data object with its
+     * configured scheme and register it in the catalog. The server reads the
+     * whole data object.
+     *
+     * @return the checksum, or null if the server returned none
+     */
+    public HirodsFileChecksum computeFileChecksum(Path f) throws IOException {
+        this.statistics.incrementReadOps(1);
+        Lease lease = leaseConnection();
+        HirodsConnection connection = lease.getConnection();
+        try {
+            return HirodsFileChecksum.parse(connection.computeChecksum(toIrodsPath(f)));
+        } finally {
+            lease.release();
+        }
+    }
+    
+    /**
+     * Progress of a deleteTree call.
+     */
+    public interface DeleteProgress {
+        
+        /**
+         * @param objects data objects deleted so far
+         * @param collections collections deleted so far
+         */
+        void deleted(long objects, long collections);
+    }
+    
+    /**
+     * Streaming iterator over the data objects in a collection subtree.
+     *
+     * Iterator methods cannot throw IOException, failures while fetching a
+     * page are thrown as ListingException carrying the IOException.
+     */
+    public class RecursiveFileStatusIterator implements Iterator<FileStatus>, Closeable {
+        
+        private String root;
+        private Path rootPath;
+        private Lease lease;
+        private HirodsConnection.Listing listing;
+        private List<HirodsConnection.Entry> page;
+        private int pageIndex = 0;
+        private boolean firstPage = true;
+        private FileStatus next;
+        private boolean closed = false;
+        // the query returns a row per replica, rows come ordered by collection
+        private String seenCollection;
+        private Set<String> seenNames = new HashSet<String>();
+        
+        RecursiveFileStatusIterator(Path f) throws IOException {
+            this.rootPath = f.makeQualified(HirodsFileSystem.this);
+            this.root = toIrodsPath(f);
+            if(this.root.length() > 1 && this.root.endsWith("/")) {
+                this.root = this.root.substring(0, this.root.length() - 1);
+            }
+            
+            // not the thread's lease, the iterator may be closed elsewhere
+            this.lease = new Lease(backend.connect());
+            HirodsConnection connection = this.lease.getConnection();
+            try {
+                HirodsConnection.Entry entry = connection.stat(this.root);
+                if(!entry.isCollection()) {
+                    // a single data object
+                    this.next = makeFileStatus(entry);
+                } else {
+                    this.listing = connection.listDataObjectsRecursive(this.root);
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if(this.next == null && !this.closed) {
+                try {
+                    this.next = fetchNext();
+                } catch (IOException ex) {
+                    close();
+                    throw new ListingException(ex);
+                }
+                if(this.next == null) {
+                    close();
+                }
+            }
+            return this.next != null;
+        }
+        
+        @Override
+        public FileStatus next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            FileStatus ret = this.next;
+            this.next = null;
+            return ret;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public synchronized void close() {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            if(this.listing != null) {
+                try {
+                    this.listing.close();
+                } catch (IOException ex) {
+                    LOG.warn("Failed to close query results", ex);
+                }
+                this.listing = null;
+            }
+            this.lease.release();
+        }
+        
+        private synchronized FileStatus fetchNext() throws IOException {
+            while(!this.closed) {
+                if(this.page != null && this.pageIndex < this.page.size()) {
+                    HirodsConnection.Entry entry = this.page.get(this.pageIndex++);
+                    if(isFirstRow(entry.getPath())) {
+                        return makeFileStatus(entry);
+                    }
+                } else if(this.listing != null) {
+                    this.page = this.listing.nextPage();
+                    this.pageIndex = 0;
+                    if(this.page == null) {
+                        return null;
+                    }
+                    if(!this.firstPage) {
+                        statistics.incrementLargeReadOps(1);
+                    }
+                    this.firstPage = false;
+                } else {
+                    return null;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * @return false for further rows of a data object, one per replica
+         */
+        private boolean isFirstRow(String path) {
+            int slash = path.lastIndexOf('/');
+            String collection = path.substring(0, slash);
+            if(!collection.equals(this.seenCollection)) {
+                this.seenCollection = collection;
+                this.seenNames.clear();
+            }
+            return this.seenNames.add(path.substring(slash + 1));
+        }
+        
+        private FileStatus makeFileStatus(HirodsConnection.Entry entry) {
+            String relative = entry.getPath().substring(this.root.length());
+            if(relative.startsWith("/")) {
+                relative = relative.substring(1);
+            }
+            Path child = relative.isEmpty() ? this.rootPath : new Path(this.rootPath, relative);
+            return new FileStatus(entry.getLength(), false, 1, getBlockSize(entry.getPath()),
+                    entry.getModificationTime(), 0, null, entry.getOwner(), null, child);
+        }
+    }
+    
+    /**
+     * Thrown by RecursiveFileStatusIterator when fetching the next page
+     * failed, the cause is the IOException.
+     */
+    public static class ListingException extends RuntimeException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        ListingException(IOException cause) {
+            super(cause);
+        }
+        
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+    
+    /**
+     * Output stream that gives its connection lease back on close.
+     */
+    private class LeasedOutputStream extends BufferedOutputStream {
+        
+        private boolean closed = false;
+        private String path;
+        private Lease lease;
+        private int maxSize;
+        private long bytesWritten = 0;
+        private long openedAt = System.nanoTime();
+        
+        /**
+         * @param maxSize the buffer doubles up to this size whenever it fills,
+         * 0 keeps it fixed
+         */
+        LeasedOutputStream(OutputStream out, int size, int maxSize, String path, Lease lease) {
+            super(out, size);
+            this.path = path;
+            this.lease = lease;
+            this.maxSize = maxSize;
+        }
+        
+        @Override
+        public synchronized void write(int b) throws IOException {
+            growBuffer(1);
+            super.write(b);
+            this.bytesWritten++;
+        }
+        
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            growBuffer(len);
+            super.write(b, off, len);
+            this.bytesWritten += len;
+        }
+        
+        private void growBuffer(int len) {
+            if(this.count + len > this.buf.length && this.buf.length < this.maxSize) {
+                byte[] grown = new byte[(int) Math.min(this.maxSize, 2L * this.buf.length)];
+                System.arraycopy(this.buf, 0, grown, 0, this.count);
+                this.buf = grown;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                super.close();
+            } finally {
+                // length changed
+                metadataCache.invalidateWithAncestors(this.path);
+                metrics.recordWrite(this.bytesWritten, System.nanoTime() - this.openedAt);
+                this.lease.release();
+            }
+        }
+    }
+    
+    /**
+     * Output stream over a data object handle.
+     */
+    private static class HandleOutputStream extends OutputStream {
+        
+        private HirodsConnection.Handle handle;
+        
+        HandleOutputStream(HirodsConnection.Handle handle) {
+            this.handle = handle;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.handle.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            this.handle.close();
+        }
+    }
+    
+    /**
+     * Input stream that gives its connection lease back on close.
+     */
+    private class LeasedInputStream extends HirodsBufferedInputStream {
+        
+        private boolean closed = false;
+        private Lease lease;
+        private long openedAt = System.nanoTime();
+        
+        LeasedInputStream(HirodsInputStream is, int buffer_size, int max_buffer_size, int readahead_depth, Lease lease) throws IOException {
+            super(is, buffer_size, max_buffer_size, readahead_depth);
+            this.lease = lease;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                metrics.recordRead(getBytesRead(), System.nanoTime() - this.openedAt, getRefillCount());
+                super.close();
+            } finally {
+                this.lease.release();
+            }
+        }
     }
     
     private static class IrodsFileStatus extends FileStatus {
 
-        public static final long DEFAULT_IRODS_BLOCKSIZE = 64*1024*1024; // 64MB
+        IrodsFileStatus(Path f, HirodsConnection.Entry entry, long blockSize) {
+            super(entry.getLength(), entry.isCollection(), 1, blockSize,
+                    entry.getModificationTime(), 0, null, entry.getOwner(), null, f);
+        }
+    }
+    
+    /**
+     * A connection shared by the operations and streams of the thread that
+     * took it, counting its holders.
+     */
+    private static class Lease {
         
-        IrodsFileStatus(Path f, IRODSFile ifile) throws IOException {
-            super(findLength(ifile), ifile.isDirectory(), 1, findBlocksize(), 0, f);
+        private HirodsConnection connection;
+        private int holders = 1;
+        
+        Lease(HirodsConnection connection) {
+            this.connection = connection;
         }
-
-        private static long findLength(IRODSFile ifile) {
-            if (!ifile.isDirectory()) {
-                return ifile.length();
+        
+        HirodsConnection getConnection() {
+            return this.connection;
+        }
+        
+        /**
+         * @return false if the connection already went back to the pool
+         */
+        synchronized boolean retain() {
+            if(this.holders == 0) {
+                return false;
             }
-            return 0;
+            this.holders++;
+            return true;
         }
-
-        private static long findBlocksize() {
-            return DEFAULT_IRODS_BLOCKSIZE;
+        
+        void release() {
+            synchronized (this) {
+                if(this.holders == 0) {
+                    return;
+                }
+                this.holders--;
+                if(this.holders > 0) {
+                    return;
+                }
+            }
+            this.connection.close();
         }
     }
     
     @Override
     public void close() throws IOException {
         try {
-            this.irodsFS.close();
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+            this.backend.close();
+        } finally {
+            this.metrics.close();
         }
         
         super.close();
@@ -1,45 +1,87 @@
 package edu.arizona.cs.hadoop.fs.irods;
 
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem;
-import org.irods.jargon.core.exception.JargonException;
-import org.irods.jargon.core.pub.IRODSFileSystem;
-import org.irods.jargon.core.pub.io.FileIOOperations.SeekWhenceType;
-import org.irods.jargon.core.pub.io.IRODSFile;
-import org.irods.jargon.core.pub.io.IRODSFileFactory;
-import org.irods.jargon.core.pub.io.IRODSRandomAccessFile;
 
 public class HirodsInputStream extends FSInputStream {
 
     private static final Log LOG = LogFactory.getLog(HirodsInputStream.class);
     
-    private IRODSFile path;
-    private IRODSFileSystem irodsFS;
-    private IRODSFileFactory fileFactory;
+    private String path;
+    private HirodsBackend backend;
+    private HirodsConnection connection;
     private FileSystem.Statistics stats;
     private boolean closed;
     private long fileLength;
     private long pos = 0;
-    private IRODSRandomAccessFile raf;
+    private long bytesRead = 0;
+    // opened on the first sequential read that needs it
+    private HirodsConnection.Handle raf;
+    private HirodsParallelRangeReader parallelReader;
+    private byte[] singleByte = new byte[1];
+    // staging for reads into direct buffers
+    private byte[] transferBuffer;
+    private HirodsBlockCache blockCache;
+    private String cacheKey;
+    private long modificationTime;
+    // positional reads go through a handle over a connection of their own,
+    // taken together under the lock by whichever thread reads first
+    private final Object preadLock = new Object();
+    private HirodsConnection.Handle preadRaf;
+    // digest of the bytes read sequentially from the start, null if not verifying
+    private MessageDigest verifyDigest;
+    private String verifyAlgorithm;
+    private long verifiedLength = 0;
     
-    public HirodsInputStream(Configuration conf, IRODSFile path, IRODSFileSystem irodsFS, IRODSFileFactory fileFactory, FileSystem.Statistics stats) throws IOException {
+    /**
+     * @param connection the connection the stream reads over, it stays open
+     * until the stream is closed
+     * @param path absolute iRODS path of the data object
+     * @param fileLength length of the data object
+     */
+    public HirodsInputStream(Configuration conf, HirodsBackend backend, HirodsConnection connection, String path, long fileLength, FileSystem.Statistics stats) throws IOException {
+        this(conf, backend, connection, path, fileLength, 0, stats);
+    }
+    
+    /**
+     * @param connection the connection the stream reads over, it stays open
+     * until the stream is closed
+     * @param path absolute iRODS path of the data object
+     * @param fileLength length of the data object
+     * @param modificationTime modification time of the data object, 0 if
+     * unknown. Reads go through the shared block cache only when it is known.
+     */
+    public HirodsInputStream(Configuration conf, HirodsBackend backend, HirodsConnection connection, String path, long fileLength, long modificationTime, FileSystem.Statistics stats) throws IOException {
         this.path = path;
-        this.irodsFS = irodsFS;
-        this.fileFactory = fileFactory;
+        this.backend = backend;
+        this.connection = connection;
         this.stats = stats;
-        this.fileLength = path.length();
+        this.fileLength = fileLength;
         this.pos = 0;
         
         //LOG.info("FileLength : " + fileLength);
 
-        try {
-            this.raf = this.fileFactory.instanceIRODSRandomAccessFile(path.getAbsolutePath());
-        } catch (JargonException ex) {
-            throw new IOException(ex);
+        if (HirodsParallelRangeReader.isEnabled(conf, this.fileLength)) {
+            this.parallelReader = new HirodsParallelRangeReader(conf, backend, path, this.fileLength);
+        }
+        
+        if (modificationTime > 0) {
+            this.blockCache = HirodsBlockCache.getInstance(conf);
+            this.cacheKey = HirodsBlockCache.makeObjectKey(backend.getHost(), backend.getPort(), path);
+            this.modificationTime = modificationTime;
+        }
+        
+        if (HirodsConfigUtils.getIrodsInputVerifyChecksum(conf)) {
+            this.verifyAlgorithm = HirodsConfigUtils.getIrodsChecksumAlgorithm(conf);
+            this.verifyDigest = HirodsFileChecksum.newDigest(this.verifyAlgorithm);
         }
     }
     
@@ -47,6 +89,82 @@ public class HirodsInputStream extends FSInputStream {
         return this.fileLength;
     }
     
+    boolean isParallelReadEnabled() {
+        return this.parallelReader != null;
+    }
+    
+    /**
+     * Open another handle to the data object over a connection of its own.
+     */
+    HirodsConnection.Handle openHandle() throws IOException {
+        HirodsConnection own = this.backend.connect();
+        try {
+            return new OwnedHandle(own, own.openRead(this.path));
+        } catch (IOException ex) {
+            own.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Fill the buffer with the bytes at the offset the way sequential reads
+     * do, through the block cache and the parallel reader when the stream
+     * uses them, otherwise over the given handle. The bytes are not counted,
+     * the caller counts them once they are consumed.
+     *
+     * @return bytes filled, less than length only at the end of the data
+     * object
+     */
+    int fetch(HirodsConnection.Handle handle, long offset, byte[] buffer, int length) throws IOException {
+        HirodsConnection.Handle source = this.parallelReader != null ? null : handle;
+        int filled = 0;
+        while (filled < length) {
+            int ret;
+            if (this.blockCache != null) {
+                ret = readThroughCache(source, offset + filled, buffer, filled, length - filled);
+            } else if (source == null) {
+                ret = this.parallelReader.read(offset + filled, buffer, filled, length - filled);
+            } else {
+                if (filled == 0) {
+                    source.seek(offset);
+                }
+                ret = source.read(buffer, filled, length - filled);
+            }
+            if (ret < 0) {
+                break;
+            }
+            filled += ret;
+        }
+        return filled;
+    }
+    
+    /**
+     * Close a handle from openHandle() and give its connection back.
+     */
+    void closeHandle(HirodsConnection.Handle handle) {
+        try {
+            handle.close();
+        } catch (IOException ex) {
+            LOG.warn("Failed to close " + this.path, ex);
+        }
+    }
+    
+    synchronized void countBytesRead(long bytes) {
+        if (bytes > 0) {
+            this.bytesRead += bytes;
+            if (this.stats != null) {
+                this.stats.incrementBytesRead(bytes);
+            }
+        }
+    }
+    
+    /**
+     * @return bytes read from iRODS through this stream
+     */
+    public synchronized long getBytesRead() {
+        return this.bytesRead;
+    }
+    
     @Override
     public synchronized long getPos() throws IOException {
         return this.pos;
@@ -63,7 +181,26 @@ public class HirodsInputStream extends FSInputStream {
             throw new IOException("Cannot seek after EOF");
         }
         this.pos = targetPos;
-        this.raf.seek(targetPos, SeekWhenceType.SEEK_START);
+        if (this.raf != null && this.parallelReader == null && this.blockCache == null) {
+            this.raf.seek(targetPos);
+        }
+    }
+    
+    /*
+     * the handle sequential reads go through, null if they go through the
+     * parallel reader
+     */
+    private HirodsConnection.Handle sequentialHandle() throws IOException {
+        if (this.parallelReader != null) {
+            return null;
+        }
+        if (this.raf == null) {
+            this.raf = this.connection.openRead(this.path);
+            if (this.pos > 0 && this.blockCache == null) {
+                this.raf.seek(this.pos);
+            }
+        }
+        return this.raf;
     }
     
     @Override
@@ -91,10 +228,17 @@ public class HirodsInputStream extends FSInputStream {
         
         int result = -1;
         if (this.pos < this.fileLength) {
-            byte[] bytes = new byte[1];
-            result = this.raf.read(bytes, 0, 1);
+            byte[] bytes = this.singleByte;
+            if (this.blockCache != null) {
+                result = readThroughCache(sequentialHandle(), this.pos, bytes, 0, 1);
+            } else if (this.parallelReader != null) {
+                result = this.parallelReader.read(this.pos, bytes, 0, 1);
+            } else {
+                result = sequentialHandle().read(bytes, 0, 1);
+            }
             //LOG.info("read results : " + result);
             if (result > 0) {
+                verify(this.pos, bytes, 0, result);
                 this.pos += result;
                 result = ((int)bytes[0] & 0xff);
             }
@@ -104,8 +248,8 @@ public class HirodsInputStream extends FSInputStream {
             //    this.pos++;
             //}
         }
-        if (this.stats != null & result >= 0) {
-            this.stats.incrementBytesRead(1);
+        if (result >= 0) {
+            countBytesRead(1);
         }
         
         //LOG.info("read : " + result);
@@ -120,12 +264,22 @@ public class HirodsInputStream extends FSInputStream {
         if (this.pos < this.fileLength) {
             int readLen = (int)Math.min(this.fileLength - this.pos, len);
             
-            int result = this.raf.read(bytes, off, readLen);
+            int result;
+            if (this.blockCache != null) {
+                result = readThroughCache(sequentialHandle(), this.pos, bytes, off, readLen);
+            } else if (this.parallelReader != null) {
+                result = this.parallelReader.read(this.pos, bytes, off, readLen);
+            } else {
+                result = sequentialHandle().read(bytes, off, readLen);
+            }
+            if (result > 0) {
+                verify(this.pos, bytes, off, result);
+            }
             if (result >= 0) {
                 this.pos += result;
             }
-            if (this.stats != null && result > 0) {
-                this.stats.incrementBytesRead(result);
+            if (result > 0) {
+                countBytesRead(result);
             }
             return result;
         }
@@ -133,17 +287,241 @@ public class HirodsInputStream extends FSInputStream {
         return -1;
     }
     
+    /**
+     * Read into a ByteBuffer. Heap buffers are filled in place through their
+     * backing array, direct buffers through a transfer buffer kept with the
+     * stream.
+     */
+    public int read(ByteBuffer buf) throws IOException {
+        int len = buf.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        
+        if (buf.hasArray()) {
+            int result = read(buf.array(), buf.arrayOffset() + buf.position(), len);
+            if (result > 0) {
+                buf.position(buf.position() + result);
+            }
+            return result;
+        }
+        
+        if (this.transferBuffer == null || this.transferBuffer.length < Math.min(len, HirodsConfigUtils.DEFAULT_BUFFER_SIZE)) {
+            this.transferBuffer = new byte[Math.min(len, HirodsConfigUtils.DEFAULT_BUFFER_SIZE)];
+        }
+        int result = read(this.transferBuffer, 0, Math.min(len, this.transferBuffer.length));
+        if (result > 0) {
+            buf.put(this.transferBuffer, 0, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Read at the given position without moving the stream position. Uses a
+     * second handle over a second connection, so the sequential handle keeps
+     * its offset and positional reads do not queue behind sequential ones.
+     */
     @Override
-    public void close() throws IOException {
+    public int read(long position, byte[] bytes, int off, int len) throws IOException {
         if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (position < 0) {
+            throw new IOException("Negative position " + position);
+        }
+        if (position >= this.fileLength) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        synchronized (this.preadLock) {
+            if (this.closed) {
+                throw new IOException("Stream closed");
+            }
+            if (this.preadRaf == null) {
+                this.preadRaf = openHandle();
+            }
+            if (this.blockCache != null) {
+                int result = readThroughCache(this.preadRaf, position, bytes, off, len);
+                if (result > 0) {
+                    countBytesRead(result);
+                }
+                return result;
+            }
+            this.preadRaf.seek(position);
+
+            int readLen = (int) Math.min(this.fileLength - position, len);
+            int result = this.preadRaf.read(bytes, off, readLen);
+            if (result > 0) {
+                countBytesRead(result);
+            }
+            return result;
+        }
+    }
+    
+    /*
+     * feed bytes read sequentially at the given position to the digest and
+     * compare with the registered checksum once the last byte is read. A
+     * jump past the verified length leaves the content unverifiable.
+     */
+    synchronized void verify(long position, byte[] bytes, int off, int len) throws IOException {
+        if (this.verifyDigest == null) {
             return;
         }
+        if (position > this.verifiedLength) {
+            LOG.debug("Not verifying " + this.path + ", bytes from " + this.verifiedLength + " to " + position + " were skipped");
+            this.verifyDigest = null;
+            return;
+        }
+        long end = position + len;
+        if (end <= this.verifiedLength) {
+            return;
+        }
+        int skip = (int) (this.verifiedLength - position);
+        this.verifyDigest.update(bytes, off + skip, len - skip);
+        this.verifiedLength = end;
+        
+        if (this.verifiedLength >= this.fileLength) {
+            byte[] digest = this.verifyDigest.digest();
+            this.verifyDigest = null;
+            HirodsFileChecksum expected = HirodsFileChecksum.parse(this.connection.getChecksum(this.path));
+            if (expected == null) {
+                LOG.debug("No checksum registered for " + this.path);
+            } else if (!expected.getAlgorithmName().equals(this.verifyAlgorithm)) {
+                LOG.warn("Cannot verify " + this.path + ", the registered checksum is " + expected.getAlgorithmName()
+                        + " but " + HirodsConfigUtils.CONFIG_IRODS_CHECKSUM_ALGORITHM + " is " + this.verifyAlgorithm);
+            } else if (!expected.matches(this.verifyAlgorithm, digest)) {
+                throw new ChecksumException("Checksum mismatch in " + this.path + " : registered " + expected
+                        + ", read " + new HirodsFileChecksum(this.verifyAlgorithm, digest), position);
+            }
+        }
+    }
+    
+    /*
+     * serve a read from the shared block cache, fetching and caching the
+     * whole block on a miss over the handle, or the parallel reader if the
+     * handle is null
+     */
+    private int readThroughCache(HirodsConnection.Handle handle, long position, byte[] bytes, int off, int len) throws IOException {
+        int result = this.blockCache.read(this.cacheKey, this.modificationTime, position, bytes, off, len);
+        if (result > 0) {
+            return result;
+        }
+        
+        int blockSize = this.blockCache.getBlockSize();
+        long blockOffset = position - (position % blockSize);
+        byte[] block = new byte[(int) Math.min(blockSize, this.fileLength - blockOffset)];
+        int filled = fetchBlock(handle, blockOffset, block);
+        if (filled <= 0) {
+            return -1;
+        }
+        this.blockCache.put(this.cacheKey, this.modificationTime, blockOffset, block, filled);
+        
+        int blockPos = (int) (position - blockOffset);
+        if (blockPos >= filled) {
+            return -1;
+        }
+        int readLen = Math.min(len, filled - blockPos);
+        System.arraycopy(block, blockPos, bytes, off, readLen);
+        return readLen;
+    }
+    
+    private int fetchBlock(HirodsConnection.Handle handle, long blockOffset, byte[] block) throws IOException {
+        int filled = 0;
+        if (handle == null) {
+            while (filled < block.length) {
+                int ret = this.parallelReader.read(blockOffset + filled, block, filled, block.length - filled);
+                if (ret < 0) {
+                    break;
+                }
+                filled += ret;
+            }
+            return filled;
+        }
+        
+        handle.seek(blockOffset);
+        while (filled < block.length) {
+            int ret = handle.read(block, filled, block.length - filled);
+            if (ret < 0) {
+                break;
+            }
+            filled += ret;
+        }
+        return filled;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (this.preadLock) {
+            // a positional read after this must not open another handle
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.preadRaf != null) {
+                closeHandle(this.preadRaf);
+                this.preadRaf = null;
+            }
+        }
+        if (this.parallelReader != null) {
+            this.parallelReader.close();
+            this.parallelReader = null;
+        }
         if (this.raf != null) {
             this.raf.close();
             this.raf = null;
         }
         super.close();
-        this.closed = true;
+    }
+    
+    /*
+     * a handle that gives its connection back when closed. seeks to where
+     * the handle already is are not sent.
+     */
+    private static class OwnedHandle implements HirodsConnection.Handle {
+
+        private HirodsConnection connection;
+        private HirodsConnection.Handle handle;
+        private long pos = 0;
+
+        OwnedHandle(HirodsConnection connection, HirodsConnection.Handle handle) {
+            this.connection = connection;
+            this.handle = handle;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int ret = this.handle.read(b, off, len);
+            if (ret > 0) {
+                this.pos += ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.handle.write(b, off, len);
+            this.pos += len;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (offset != this.pos) {
+                this.handle.seek(offset);
+                this.pos = offset;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.handle.close();
+            } finally {
+                this.connection.close();
+            }
+        }
     }
     
     @Override
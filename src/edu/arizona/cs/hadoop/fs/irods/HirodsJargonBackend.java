@@ -0,0 +1,718 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.irods.jargon.core.connection.AbstractIRODSMidLevelProtocol;
+import org.irods.jargon.core.connection.IRODSAccount;
+import org.irods.jargon.core.connection.IRODSSession;
+import org.irods.jargon.core.connection.SettableJargonProperties;
+import org.irods.jargon.core.exception.JargonException;
+import org.irods.jargon.core.exception.JargonFileOrCollAlreadyExistsException;
+import org.irods.jargon.core.packinstr.CollInp;
+import org.irods.jargon.core.packinstr.DataObjInp;
+import org.irods.jargon.core.pub.CollectionAndDataObjectListAndSearchAO;
+import org.irods.jargon.core.pub.DataObjectAO;
+import org.irods.jargon.core.pub.IRODSAccessObjectFactory;
+import org.irods.jargon.core.pub.IRODSFileSystem;
+import org.irods.jargon.core.pub.IRODSFileSystemAO;
+import org.irods.jargon.core.pub.IRODSGenQueryExecutor;
+import org.irods.jargon.core.pub.domain.ObjStat;
+import org.irods.jargon.core.pub.domain.Resource;
+import org.irods.jargon.core.pub.io.FileIOOperations.SeekWhenceType;
+import org.irods.jargon.core.pub.io.IRODSFile;
+import org.irods.jargon.core.pub.io.IRODSFileFactory;
+import org.irods.jargon.core.pub.io.IRODSFileOutputStream;
+import org.irods.jargon.core.pub.io.IRODSRandomAccessFile;
+import org.irods.jargon.core.query.CollectionAndDataObjectListingEntry;
+import org.irods.jargon.core.query.GenQueryBuilderException;
+import org.irods.jargon.core.query.IRODSGenQueryBuilder;
+import org.irods.jargon.core.query.IRODSGenQueryFromBuilder;
+import org.irods.jargon.core.query.IRODSQueryResultRow;
+import org.irods.jargon.core.query.IRODSQueryResultSet;
+import org.irods.jargon.core.query.JargonQueryException;
+import org.irods.jargon.core.query.QueryConditionOperators;
+import org.irods.jargon.core.query.RodsGenQueryEnum;
+
+/**
+ * The iRODS grid, reached through Jargon.
+ *
+ * Jargon looks up the connection of an account in a map bound to the calling
+ * thread. Every call made through a connection from here binds that
+ * connection's protocol into the map of the calling thread for the duration
+ * of the call, so a connection and the descriptors opened on it can be used
+ * from any thread.
+ */
+public class HirodsJargonBackend implements HirodsBackend {
+
+    private static final Log LOG = LogFactory.getLog(HirodsJargonBackend.class);
+
+    private IRODSFileSystem irodsFS;
+    private IRODSAccount account;
+    private String accountKey;
+    private HirodsConnectionPool connectionPool;
+    private int pageSize;
+
+    public HirodsJargonBackend(Configuration conf, String host, int port, String zone, String user, String password, HirodsMetrics metrics) throws IOException {
+        if (user == null || password == null) {
+            throw new IOException("invalid user and password specified");
+        }
+        this.pageSize = HirodsConfigUtils.getIrodsListPageSize(conf);
+        this.connectionPool = new HirodsConnectionPool(conf, metrics);
+        try {
+            this.irodsFS = new IRODSFileSystem(this.connectionPool);
+            this.account = IRODSAccount.instance(host, port, user, password, "/" + zone.trim(), zone, "");
+        } catch (JargonException ex) {
+            throw new IOException(ex);
+        }
+        this.accountKey = this.account.toString();
+
+        // page size of catalog listings
+        SettableJargonProperties jargonProperties = new SettableJargonProperties(this.irodsFS.getJargonProperties());
+        jargonProperties.setMaxFilesAndDirsQueryMax(this.pageSize);
+        this.irodsFS.getIrodsSession().setJargonProperties(jargonProperties);
+
+        // authenticate once up front, so bad credentials fail here
+        connect().close();
+    }
+
+    @Override
+    public HirodsConnection connect() throws IOException {
+        JargonConnection connection = new JargonConnection();
+        connection.call(new Call<Void>() {
+            @Override
+            public Void call() throws JargonException {
+                // the pool hands out an idle connection or authenticates a
+                // new one, bound to this call as there is none yet
+                irodsFS.getIrodsSession().currentConnection(account);
+                return null;
+            }
+        });
+        return connection;
+    }
+
+    @Override
+    public String getHost() {
+        return this.account.getHost();
+    }
+
+    @Override
+    public int getPort() {
+        return this.account.getPort();
+    }
+
+    @Override
+    public String getZone() {
+        return this.account.getZone();
+    }
+
+    @Override
+    public String getHomeDirectory() {
+        return this.account.getHomeDirectory();
+    }
+
+    public HirodsConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.connectionPool.destroy();
+        } catch (JargonException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private IRODSAccessObjectFactory getAccessObjectFactory() throws JargonException {
+        return this.irodsFS.getIRODSAccessObjectFactory();
+    }
+
+    private IRODSFileFactory getFileFactory() throws JargonException {
+        return this.irodsFS.getIRODSFileFactory(this.account);
+    }
+
+    private static IOException toIOException(JargonException ex) {
+        if (ex instanceof org.irods.jargon.core.exception.FileNotFoundException) {
+            FileNotFoundException fnf = new FileNotFoundException(ex.getMessage());
+            fnf.initCause(ex);
+            return fnf;
+        }
+        if (ex instanceof JargonFileOrCollAlreadyExistsException) {
+            FileAlreadyExistsException exists = new FileAlreadyExistsException(ex.getMessage());
+            exists.initCause(ex);
+            return exists;
+        }
+        return new IOException(ex);
+    }
+
+    private static long toTime(Date date) {
+        if (date == null) {
+            return 0;
+        }
+        return date.getTime();
+    }
+
+    /**
+     * A request made with the protocol of a connection bound to the calling
+     * thread.
+     */
+    private interface Call<T> {
+
+        T call() throws JargonException, IOException;
+    }
+
+    private class JargonConnection implements HirodsConnection {
+
+        private ReentrantLock lock = new ReentrantLock();
+        private AbstractIRODSMidLevelProtocol protocol;
+        private boolean closed = false;
+
+        <T> T call(Call<T> call) throws IOException {
+            this.lock.lock();
+            try {
+                if (this.closed) {
+                    throw new IOException("Connection is closed");
+                }
+                Map<String, AbstractIRODSMidLevelProtocol> protocols = IRODSSession.sessionMap.get();
+                if (protocols == null) {
+                    protocols = new HashMap<String, AbstractIRODSMidLevelProtocol>();
+                    IRODSSession.sessionMap.set(protocols);
+                }
+                AbstractIRODSMidLevelProtocol previous;
+                if (this.protocol == null) {
+                    previous = protocols.remove(accountKey);
+                } else {
+                    previous = protocols.put(accountKey, this.protocol);
+                }
+                try {
+                    return call.call();
+                } catch (JargonException ex) {
+                    throw toIOException(ex);
+                } finally {
+                    // jargon replaces or drops a connection it found broken
+                    this.protocol = protocols.get(accountKey);
+                    if (previous == null) {
+                        protocols.remove(accountKey);
+                    } else {
+                        protocols.put(accountKey, previous);
+                    }
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        @Override
+        public Entry stat(final String path) throws IOException {
+            return call(new Call<Entry>() {
+                @Override
+                public Entry call() throws JargonException {
+                    ObjStat stat = getAccessObjectFactory().getCollectionAndDataObjectListAndSearchAO(account).retrieveObjectStatForPath(path);
+                    return new Entry(path, stat.isSomeTypeOfCollection(), stat.getObjSize(), toTime(stat.getModifiedAt()), stat.getOwnerName());
+                }
+            });
+        }
+
+        @Override
+        public Listing listCollections(String path) throws IOException {
+            return new CatalogListing(path, true);
+        }
+
+        @Override
+        public Listing listDataObjects(String path) throws IOException {
+            return new CatalogListing(path, false);
+        }
+
+        @Override
+        public Listing listDataObjectsRecursive(String path) throws IOException {
+            return new QueryListing(path, false);
+        }
+
+        @Override
+        public Listing listCollectionsRecursive(String path) throws IOException {
+            return new QueryListing(path, true);
+        }
+
+        @Override
+        public boolean mkdirs(final String path) throws IOException {
+            return call(new Call<Boolean>() {
+                @Override
+                public Boolean call() throws JargonException {
+                    IRODSFile ipath = getFileFactory().instanceIRODSFile(path);
+                    return ipath.mkdirs();
+                }
+            });
+        }
+
+        @Override
+        public Handle openRead(final String path) throws IOException {
+            return call(new Call<Handle>() {
+                @Override
+                public Handle call() throws JargonException {
+                    return new RandomAccessHandle(getFileFactory().instanceIRODSRandomAccessFile(path));
+                }
+            });
+        }
+
+        @Override
+        public Handle create(final String path, final boolean overwrite) throws IOException {
+            return call(new Call<Handle>() {
+                @Override
+                public Handle call() throws JargonException {
+                    if (overwrite) {
+                        return new OutputStreamHandle(getFileFactory().instanceIRODSFileOutputStream(path));
+                    }
+                    // the server fails the create if the path exists
+                    IRODSFileSystemAO fsAO = getAccessObjectFactory().getIRODSFileSystemAO(account);
+                    int fd = fsAO.createFile(path, DataObjInp.OpenFlags.READ_WRITE, DataObjInp.DEFAULT_CREATE_MODE);
+                    fsAO.fileClose(fd);
+                    return new RandomAccessHandle(getFileFactory().instanceIRODSRandomAccessFile(path));
+                }
+            });
+        }
+
+        @Override
+        public Handle openWrite(final String path) throws IOException {
+            try {
+                stat(path);
+            } catch (FileNotFoundException ex) {
+                try {
+                    return create(path, false);
+                } catch (FileAlreadyExistsException raced) {
+                    // another writer created it in between, open theirs
+                }
+            }
+            // opening a random access file keeps the content
+            return openRead(path);
+        }
+
+        @Override
+        public void deleteDataObject(final String path, final boolean force) throws IOException {
+            call(new Call<Void>() {
+                @Override
+                public Void call() throws JargonException {
+                    IRODSFileSystemAO fsAO = getAccessObjectFactory().getIRODSFileSystemAO(account);
+                    IRODSFile ipath = getFileFactory().instanceIRODSFile(path);
+                    if (force) {
+                        fsAO.fileDeleteForce(ipath);
+                    } else {
+                        fsAO.fileDeleteNoForce(ipath);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void deleteCollection(final String path, final boolean recursive, final boolean force) throws IOException {
+            call(new Call<Void>() {
+                @Override
+                public Void call() throws JargonException {
+                    if (!recursive) {
+                        // jargon only offers the recursive removal
+                        CollInp collInp = CollInp.instance(path, false, force);
+                        irodsFS.getIrodsSession().currentConnection(account).irodsFunction(CollInp.PI_TAG, collInp.getParsedTags(), CollInp.RMDIR_API_NBR);
+                        return null;
+                    }
+                    IRODSFileSystemAO fsAO = getAccessObjectFactory().getIRODSFileSystemAO(account);
+                    IRODSFile ipath = getFileFactory().instanceIRODSFile(path);
+                    if (force) {
+                        fsAO.directoryDeleteForce(ipath);
+                    } else {
+                        fsAO.directoryDeleteNoForce(ipath);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void rename(final String src, final String dst, final boolean collection) throws IOException {
+            call(new Call<Void>() {
+                @Override
+                public Void call() throws JargonException {
+                    IRODSFileSystemAO fsAO = getAccessObjectFactory().getIRODSFileSystemAO(account);
+                    IRODSFileFactory fileFactory = getFileFactory();
+                    if (collection) {
+                        fsAO.renameDirectory(fileFactory.instanceIRODSFile(src), fileFactory.instanceIRODSFile(dst));
+                    } else {
+                        fsAO.renameFile(fileFactory.instanceIRODSFile(src), fileFactory.instanceIRODSFile(dst));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public String getChecksum(final String path) throws IOException {
+            return call(new Call<String>() {
+                @Override
+                public String call() throws JargonException, IOException {
+                    return getAccessObjectFactory().getDataObjectAO(account).findByAbsolutePath(path).getChecksum();
+                }
+            });
+        }
+
+        @Override
+        public String computeChecksum(final String path) throws IOException {
+            return call(new Call<String>() {
+                @Override
+                public String call() throws JargonException {
+                    DataObjectAO dataObjectAO = getAccessObjectFactory().getDataObjectAO(account);
+                    return dataObjectAO.computeMD5ChecksumOnDataObject(getFileFactory().instanceIRODSFile(path));
+                }
+            });
+        }
+
+        @Override
+        public List<String> getReplicaHosts(final String path) throws IOException {
+            return call(new Call<List<String>>() {
+                @Override
+                public List<String> call() throws JargonException {
+                    IRODSFile ipath = getFileFactory().instanceIRODSFile(path);
+                    DataObjectAO dataObjectAO = getAccessObjectFactory().getDataObjectAO(account);
+                    List<String> hosts = new ArrayList<String>();
+                    for (Resource resource : dataObjectAO.getResourcesForDataObject(ipath.getParent(), ipath.getName())) {
+                        String location = resource.getLocation();
+                        if (location != null && !location.isEmpty() && !hosts.contains(location)) {
+                            hosts.add(location);
+                        }
+                    }
+                    return hosts;
+                }
+            });
+        }
+
+        @Override
+        public void extractBundle(final String bundle, final String target) throws IOException {
+            call(new Call<Void>() {
+                @Override
+                public Void call() throws JargonException {
+                    String resource = account.getDefaultStorageResource();
+                    getAccessObjectFactory().getBulkFileOperationsAO(account).extractABundleIntoAnIrodsCollectionWithForceOption(bundle, target, resource == null ? "" : resource);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            this.lock.lock();
+            try {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                if (this.protocol != null) {
+                    connectionPool.returnIRODSProtocol(this.protocol);
+                    this.protocol = null;
+                }
+            } catch (JargonException ex) {
+                LOG.warn("Failed to return iRODS connection", ex);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void discard() {
+            this.lock.lock();
+            try {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                if (this.protocol != null) {
+                    connectionPool.returnWithForce(this.protocol);
+                    this.protocol = null;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private class RandomAccessHandle implements Handle {
+
+            private IRODSRandomAccessFile raf;
+
+            RandomAccessHandle(IRODSRandomAccessFile raf) {
+                this.raf = raf;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return call(new Call<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return raf.read(b, off, len);
+                    }
+                });
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        raf.write(b, off, len);
+                        return null;
+                    }
+                });
+            }
+
+            @Override
+            public void seek(final long offset) throws IOException {
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        raf.seek(offset, SeekWhenceType.SEEK_START);
+                        return null;
+                    }
+                });
+            }
+
+            @Override
+            public void close() throws IOException {
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        raf.close();
+                        return null;
+                    }
+                });
+            }
+        }
+
+        private class OutputStreamHandle implements Handle {
+
+            private IRODSFileOutputStream out;
+
+            OutputStreamHandle(IRODSFileOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                throw new IOException("Not open for reading");
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        out.write(b, off, len);
+                        return null;
+                    }
+                });
+            }
+
+            @Override
+            public void seek(long offset) throws IOException {
+                throw new IOException("Not open for random access");
+            }
+
+            @Override
+            public void close() throws IOException {
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        out.close();
+                        return null;
+                    }
+                });
+            }
+        }
+
+        /**
+         * Children of a collection from the paged listing of the catalog.
+         */
+        private class CatalogListing implements Listing {
+
+            private String path;
+            private boolean collections;
+            private int offset = 0;
+            private boolean done = false;
+
+            CatalogListing(String path, boolean collections) {
+                this.path = path;
+                this.collections = collections;
+            }
+
+            @Override
+            public List<Entry> nextPage() throws IOException {
+                if (this.done) {
+                    return null;
+                }
+                return call(new Call<List<Entry>>() {
+                    @Override
+                    public List<Entry> call() throws JargonException {
+                        CollectionAndDataObjectListAndSearchAO listAO = getAccessObjectFactory().getCollectionAndDataObjectListAndSearchAO(account);
+                        List<CollectionAndDataObjectListingEntry> entries;
+                        if (collections) {
+                            entries = listAO.listCollectionsUnderPath(path, offset);
+                        } else {
+                            entries = listAO.listDataObjectsUnderPath(path, offset);
+                        }
+                        if (entries.isEmpty() || entries.get(entries.size() - 1).isLastResult()) {
+                            done = true;
+                        } else {
+                            offset = entries.get(entries.size() - 1).getCount();
+                        }
+
+                        List<Entry> page = new ArrayList<Entry>();
+                        String parent = path.equals("/") ? "" : path;
+                        for (CollectionAndDataObjectListingEntry entry : entries) {
+                            String name = entry.getPathOrName();
+                            int idx = name.lastIndexOf('/');
+                            if (idx >= 0) {
+                                // collections are listed by absolute path
+                                name = name.substring(idx + 1);
+                            }
+                            if (name.isEmpty()) {
+                                continue;
+                            }
+                            page.add(new Entry(parent + "/" + name, entry.isCollection(), entry.getDataSize(),
+                                    toTime(entry.getModifiedAt()), entry.getOwnerName()));
+                        }
+                        return page;
+                    }
+                });
+            }
+
+            @Override
+            public void close() {
+                this.done = true;
+            }
+        }
+
+        /**
+         * Entries below a collection from general queries over the
+         * collection name: data objects directly in it first, then
+         * everything below its children.
+         */
+        private class QueryListing implements Listing {
+
+            private String root;
+            private boolean collections;
+            private IRODSQueryResultSet resultSet;
+            private QueryConditionOperators[] conditions;
+            private int conditionIndex = -1;
+
+            QueryListing(String root, boolean collections) {
+                this.root = root;
+                if (this.root.length() > 1 && this.root.endsWith("/")) {
+                    this.root = this.root.substring(0, this.root.length() - 1);
+                }
+                this.collections = collections;
+                if (collections) {
+                    this.conditions = new QueryConditionOperators[] {QueryConditionOperators.LIKE};
+                } else {
+                    this.conditions = new QueryConditionOperators[] {QueryConditionOperators.EQUAL, QueryConditionOperators.LIKE};
+                }
+            }
+
+            @Override
+            public List<Entry> nextPage() throws IOException {
+                return call(new Call<List<Entry>>() {
+                    @Override
+                    public List<Entry> call() throws JargonException, IOException {
+                        try {
+                            IRODSGenQueryExecutor executor = getAccessObjectFactory().getIRODSGenQueryExecutor(account);
+                            if (resultSet != null && resultSet.isHasMoreRecords()) {
+                                resultSet = executor.getMoreResults(resultSet);
+                            } else if (conditionIndex + 1 < conditions.length) {
+                                conditionIndex++;
+                                resultSet = executor.executeIRODSQueryWithPaging(buildQuery(conditions[conditionIndex]), 0);
+                            } else {
+                                resultSet = null;
+                                return null;
+                            }
+                        } catch (JargonQueryException ex) {
+                            throw new IOException(ex);
+                        } catch (GenQueryBuilderException ex) {
+                            throw new IOException(ex);
+                        }
+
+                        List<Entry> page = new ArrayList<Entry>();
+                        for (IRODSQueryResultRow row : resultSet.getResults()) {
+                            Entry entry = makeEntry(row);
+                            if (entry != null) {
+                                page.add(entry);
+                            }
+                        }
+                        return page;
+                    }
+                });
+            }
+
+            private IRODSGenQueryFromBuilder buildQuery(QueryConditionOperators operator) throws GenQueryBuilderException {
+                IRODSGenQueryBuilder builder = new IRODSGenQueryBuilder(true, null);
+                builder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_COLL_NAME);
+                if (!this.collections) {
+                    builder.addSelectAsGenQueryValue(RodsGenQueryEnum.COL_DATA_NAME)
+                            .addSelectAsGenQueryValue(RodsGenQueryEnum.COL_DATA_SIZE)
+                            .addSelectAsGenQueryValue(RodsGenQueryEnum.COL_D_MODIFY_TIME)
+                            .addSelectAsGenQueryValue(RodsGenQueryEnum.COL_D_OWNER_NAME);
+                }
+                if (operator == QueryConditionOperators.LIKE) {
+                    builder.addConditionAsGenQueryField(RodsGenQueryEnum.COL_COLL_NAME, operator, (this.root.equals("/") ? "" : this.root) + "/%");
+                } else {
+                    builder.addConditionAsGenQueryField(RodsGenQueryEnum.COL_COLL_NAME, operator, this.root);
+                }
+                return builder.exportIRODSQueryFromBuilder(pageSize);
+            }
+
+            private Entry makeEntry(IRODSQueryResultRow row) throws JargonException {
+                String collection = row.getColumn(0);
+                // LIKE also treats '_' and '%' in the root as wildcards
+                String prefix = this.root.equals("/") ? "/" : this.root + "/";
+                if (!collection.equals(this.root) && !collection.startsWith(prefix)) {
+                    return null;
+                }
+                if (this.collections) {
+                    return new Entry(collection, true, 0, 0, null);
+                }
+
+                long modifiedAt = 0;
+                try {
+                    modifiedAt = Long.parseLong(row.getColumn(3)) * 1000;
+                } catch (NumberFormatException ex) {
+                    // leave unknown
+                }
+                String parent = collection.equals("/") ? "" : collection;
+                return new Entry(parent + "/" + row.getColumn(1), false, Long.parseLong(row.getColumn(2)), modifiedAt, row.getColumn(4));
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (this.resultSet == null || !this.resultSet.isHasMoreRecords()) {
+                    this.resultSet = null;
+                    return;
+                }
+                call(new Call<Void>() {
+                    @Override
+                    public Void call() throws JargonException {
+                        try {
+                            getAccessObjectFactory().getIRODSGenQueryExecutor(account).closeResults(resultSet);
+                        } finally {
+                            resultSet = null;
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * A bounded LRU cache of FileStatus by absolute iRODS path. Entries expire
+ * after a TTL. Paths known not to exist are cached as negative entries with
+ * a TTL of their own.
+ */
+public class HirodsMetadataCache {
+
+    private int maxEntries;
+    private long ttl;
+    private long negativeTtl;
+    private LinkedHashMap<String, CacheEntry> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    public HirodsMetadataCache(int maxEntries, long ttl, long negativeTtl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > HirodsMetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return this.maxEntries > 0 && this.ttl > 0;
+    }
+
+    /**
+     * Look up a path.
+     *
+     * @return the cached entry, or null if the path is not cached
+     */
+    public synchronized CacheEntry get(String path) {
+        CacheEntry entry = this.entries.get(path);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            this.entries.remove(path);
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry;
+    }
+
+    public synchronized void put(String path, FileStatus status) {
+        if (isEnabled()) {
+            this.entries.put(path, new CacheEntry(status, System.currentTimeMillis() + this.ttl));
+        }
+    }
+
+    public synchronized void putNegative(String path) {
+        if (isEnabled() && this.negativeTtl > 0) {
+            this.entries.put(path, new CacheEntry(null, System.currentTimeMillis() + this.negativeTtl));
+        }
+    }
+
+    /**
+     * Drop the path and its ancestors. Use after the path was created, as
+     * ancestors may have been created too.
+     */
+    public synchronized void invalidateWithAncestors(String path) {
+        String p = path;
+        while (p != null && !p.isEmpty()) {
+            this.entries.remove(p);
+            int idx = p.lastIndexOf('/');
+            p = idx > 0 ? p.substring(0, idx) : null;
+        }
+    }
+
+    /**
+     * Drop the path and everything under it. Use after the path was deleted
+     * or moved.
+     */
+    public synchronized void invalidateTree(String path) {
+        this.entries.remove(path);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Iterator<String> iter = this.entries.keySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().startsWith(prefix)) {
+                iter.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public static class CacheEntry {
+        private FileStatus status;
+        private long expires;
+
+        CacheEntry(FileStatus status, long expires) {
+            this.status = status;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the status, or null if the path does not exist
+         */
+        public FileStatus getStatus() {
+            return this.status;
+        }
+
+        public boolean exists() {
+            return this.status != null;
+        }
+    }
+}
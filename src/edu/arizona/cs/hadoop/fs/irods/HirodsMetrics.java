@@ -0,0 +1,242 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+
+/**
+ * Latency and throughput figures of a HirodsFileSystem.
+ *
+ * Operations are timed into histograms with power of two buckets, from which
+ * percentiles are estimated. Figures are published through the "irods"
+ * Hadoop metrics context, can be logged periodically, and are handed to the
+ * output committer as job counters.
+ */
+public class HirodsMetrics implements Updater {
+
+    private static final Log LOG = LogFactory.getLog(HirodsMetrics.class);
+
+    public static final String OP_OPEN = "open";
+    public static final String OP_CREATE = "create";
+    public static final String OP_LIST = "list";
+    public static final String OP_STAT = "stat";
+    public static final String OP_RENAME = "rename";
+    public static final String OP_DELETE = "delete";
+    public static final String OP_MKDIRS = "mkdirs";
+    public static final String OP_CONNECT = "connect";
+    public static final String OP_EXTRACT = "extract";
+
+    private static final String[] OPS = {OP_OPEN, OP_CREATE, OP_LIST, OP_STAT, OP_RENAME, OP_DELETE, OP_MKDIRS, OP_CONNECT, OP_EXTRACT};
+    // bucket i holds latencies below 2^i microseconds
+    private static final int BUCKETS = 32;
+
+    private Map<String, OpStats> ops = new LinkedHashMap<String, OpStats>();
+    private StreamStats reads = new StreamStats();
+    private StreamStats writes = new StreamStats();
+    private long bufferRefills = 0;
+    private HirodsMetadataCache metadataCache;
+    private MetricsContext context;
+    private MetricsRecord record;
+    private Timer logTimer;
+    private Map<String, Long> publishedCounters = new HashMap<String, Long>();
+
+    /**
+     * @param logInterval interval of the periodic log dump in ms, 0 disables
+     * it
+     */
+    public HirodsMetrics(String host, long logInterval) {
+        for (String op : OPS) {
+            this.ops.put(op, new OpStats());
+        }
+
+        this.context = MetricsUtil.getContext("irods");
+        this.record = MetricsUtil.createRecord(this.context, "filesystem");
+        this.record.setTag("host", host);
+        this.context.registerUpdater(this);
+
+        if (logInterval > 0) {
+            this.logTimer = new Timer("hirods-metrics", true);
+            this.logTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    LOG.info(HirodsMetrics.this.toString());
+                }
+            }, logInterval, logInterval);
+        }
+    }
+
+    void setMetadataCache(HirodsMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * Record an operation that started at the given System.nanoTime().
+     */
+    public void record(String op, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        OpStats stats = this.ops.get(op);
+        synchronized (this) {
+            stats.count++;
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            stats.buckets[bucket]++;
+        }
+    }
+
+    public synchronized void recordRead(long bytes, long nanos, long refills) {
+        this.reads.add(bytes, nanos);
+        this.bufferRefills += refills;
+    }
+
+    public synchronized void recordWrite(long bytes, long nanos) {
+        this.writes.add(bytes, nanos);
+    }
+
+    public synchronized long getCount(String op) {
+        return this.ops.get(op).count;
+    }
+
+    public synchronized double getMeanMillis(String op) {
+        OpStats stats = this.ops.get(op);
+        return stats.count == 0 ? 0 : stats.totalNanos / 1000000.0 / stats.count;
+    }
+
+    /**
+     * Estimate a latency percentile from the histogram.
+     *
+     * @param percentile between 0 and 1
+     * @return upper bound of the bucket holding the percentile in ms
+     */
+    public synchronized double getPercentileMillis(String op, double percentile) {
+        OpStats stats = this.ops.get(op);
+        if (stats.count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(stats.count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += stats.buckets[i];
+            if (seen >= target) {
+                return Math.min((1L << i) / 1000.0, stats.maxNanos / 1000000.0);
+            }
+        }
+        return stats.maxNanos / 1000000.0;
+    }
+
+    /**
+     * Counter values changed since the last call, for job counters.
+     */
+    public synchronized Map<String, Long> takeCounterDeltas() {
+        Map<String, Long> current = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, OpStats> entry : this.ops.entrySet()) {
+            current.put(entry.getKey() + "_ops", entry.getValue().count);
+            current.put(entry.getKey() + "_millis", entry.getValue().totalNanos / 1000000);
+        }
+        current.put("bytes_read", this.reads.bytes);
+        current.put("bytes_written", this.writes.bytes);
+        current.put("buffer_refills", this.bufferRefills);
+        if (this.metadataCache != null) {
+            current.put("metadata_cache_hits", this.metadataCache.getHits());
+            current.put("metadata_cache_misses", this.metadataCache.getMisses());
+        }
+
+        Map<String, Long> deltas = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : current.entrySet()) {
+            Long last = this.publishedCounters.get(entry.getKey());
+            long delta = entry.getValue() - (last == null ? 0 : last);
+            if (delta != 0) {
+                deltas.put(entry.getKey(), delta);
+            }
+            this.publishedCounters.put(entry.getKey(), entry.getValue());
+        }
+        return deltas;
+    }
+
+    @Override
+    public synchronized void doUpdates(MetricsContext unused) {
+        for (String op : this.ops.keySet()) {
+            this.record.setMetric(op + "_ops", getCount(op));
+            this.record.setMetric(op + "_avg_ms", (float) getMeanMillis(op));
+            this.record.setMetric(op + "_p99_ms", (float) getPercentileMillis(op, 0.99));
+            this.record.setMetric(op + "_max_ms", (float) (this.ops.get(op).maxNanos / 1000000.0));
+        }
+        this.record.setMetric("bytes_read", this.reads.bytes);
+        this.record.setMetric("read_bytes_per_sec", (float) this.reads.getBytesPerSecond());
+        this.record.setMetric("bytes_written", this.writes.bytes);
+        this.record.setMetric("write_bytes_per_sec", (float) this.writes.getBytesPerSecond());
+        this.record.setMetric("buffer_refills", this.bufferRefills);
+        this.record.setMetric("metadata_cache_hit_ratio", (float) getMetadataCacheHitRatio());
+        HirodsBlockCache blockCache = HirodsBlockCache.getInstance();
+        if (blockCache != null) {
+            this.record.setMetric("block_cache_hit_ratio", (float) ratio(blockCache.getHits(), blockCache.getMisses()));
+        }
+        this.record.update();
+    }
+
+    public void close() {
+        this.context.unregisterUpdater(this);
+        if (this.logTimer != null) {
+            this.logTimer.cancel();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("iRODS metrics :");
+        for (String op : this.ops.keySet()) {
+            if (getCount(op) > 0) {
+                sb.append(String.format(" %s[n=%d avg=%.1fms p50=%.1fms p99=%.1fms]", op, getCount(op),
+                        getMeanMillis(op), getPercentileMillis(op, 0.5), getPercentileMillis(op, 0.99)));
+            }
+        }
+        sb.append(String.format(" read[%d bytes %.1f MB/s] write[%d bytes %.1f MB/s] refills=%d metadata_cache_hit_ratio=%.2f",
+                this.reads.bytes, this.reads.getBytesPerSecond() / 1048576, this.writes.bytes, this.writes.getBytesPerSecond() / 1048576,
+                this.bufferRefills, getMetadataCacheHitRatio()));
+        return sb.toString();
+    }
+
+    private double getMetadataCacheHitRatio() {
+        if (this.metadataCache == null) {
+            return 0;
+        }
+        return ratio(this.metadataCache.getHits(), this.metadataCache.getMisses());
+    }
+
+    private static double ratio(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private static class OpStats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long[] buckets = new long[BUCKETS];
+    }
+
+    /*
+     * bytes moved by streams and the time the streams were open
+     */
+    private static class StreamStats {
+        private long bytes;
+        private long nanos;
+
+        void add(long bytes, long nanos) {
+            this.bytes += bytes;
+            this.nanos += nanos;
+        }
+
+        double getBytesPerSecond() {
+            return this.nanos == 0 ? 0 : this.bytes * 1000000000.0 / this.nanos;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Deletes a collection tree entry by entry with multiple threads, for grids
+ * where removing a collection recursively on the server is not allowed.
+ *
+ * Data objects come from a streaming catalog query over the caller's
+ * connection and are deleted in batches by workers, each over its own
+ * connection, so a delete takes one connection more than it has workers.
+ * At most two batches per worker are queued, so memory use does not grow
+ * with the size of the tree. Removing rows under a paged query can move
+ * rows not yet fetched into pages already read, so the tree is listed again
+ * until a pass deletes nothing. Collections are removed afterwards, deepest
+ * first, each with a non-recursive call that only removes an empty
+ * collection. Collections above an entry that could not be deleted are
+ * kept.
+ */
+class HirodsParallelDelete {
+
+    private static final Log LOG = LogFactory.getLog(HirodsParallelDelete.class);
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    private HirodsBackend backend;
+    private HirodsConnection connection;
+    private boolean force;
+    private int threads;
+    private HirodsFileSystem.DeleteProgress progress;
+    private long deletedObjects = 0;
+    private long deletedCollections = 0;
+    private long failedCount = 0;
+    private List<String> failures = new ArrayList<String>();
+    private String root;
+    // collections above an entry that could not be deleted
+    private Set<String> keptCollections = new HashSet<String>();
+    // entries that could not be deleted, not tried again by later passes
+    private Set<String> failedPaths = new HashSet<String>();
+
+    /**
+     * @param connection used by the calling thread for listing and removing
+     * collections, workers take connections of their own
+     */
+    HirodsParallelDelete(HirodsBackend backend, HirodsConnection connection, boolean force, int threads, HirodsFileSystem.DeleteProgress progress) {
+        this.backend = backend;
+        this.connection = connection;
+        this.force = force;
+        this.threads = threads;
+        this.progress = progress;
+    }
+
+    /**
+     * Delete the collection and everything under it.
+     *
+     * @param root absolute iRODS path of the collection
+     * @throws IOException if listing failed, or naming the entries that could
+     * not be deleted
+     */
+    void delete(String root) throws IOException {
+        this.root = root;
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hirods-delete");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            while (deleteObjects(root, executor) > 0) {
+                LOG.debug("Listing " + root + " again for data objects left by paging");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        deleteCollections(root);
+
+        if (this.failedCount > 0) {
+            throw new IOException("Failed to delete " + this.failedCount + " entries under " + root + " : " + this.failures);
+        }
+        LOG.debug("Deleted " + this.deletedObjects + " data objects and " + this.deletedCollections + " collections under " + root);
+    }
+
+    /*
+     * one pass over the data objects listed under the root, returns the
+     * number deleted
+     */
+    private long deleteObjects(String root, ExecutorService executor) throws IOException {
+        CompletionService<Integer> batches = new ExecutorCompletionService<Integer>(executor);
+        int maxQueued = 2 * this.threads;
+        int queued = 0;
+        long deleted = 0;
+        try {
+            HirodsConnection.Listing listing = this.connection.listDataObjectsRecursive(root);
+            try {
+                // the query returns a row per replica, rows come ordered by
+                // collection
+                String seenCollection = null;
+                Set<String> seenNames = new HashSet<String>();
+                List<String> batch = new ArrayList<String>();
+                List<HirodsConnection.Entry> page;
+                while ((page = listing.nextPage()) != null) {
+                    for (HirodsConnection.Entry entry : page) {
+                        String path = entry.getPath();
+                        int slash = path.lastIndexOf('/');
+                        String collection = path.substring(0, slash);
+                        if (!collection.equals(seenCollection)) {
+                            seenCollection = collection;
+                            seenNames.clear();
+                        }
+                        if (!seenNames.add(path.substring(slash + 1)) || isFailed(path)) {
+                            continue;
+                        }
+                        batch.add(path);
+                        if (batch.size() >= BATCH_SIZE) {
+                            if (queued >= maxQueued) {
+                                deleted += completeBatch(batches);
+                                queued--;
+                            }
+                            batches.submit(new ObjectDeleter(batch));
+                            queued++;
+                            batch = new ArrayList<String>();
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batches.submit(new ObjectDeleter(batch));
+                    queued++;
+                }
+            } finally {
+                listing.close();
+            }
+
+            while (queued > 0) {
+                deleted += completeBatch(batches);
+                queued--;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        return deleted;
+    }
+
+    /*
+     * wait for the next batch to finish
+     */
+    private int completeBatch(CompletionService<Integer> batches) throws IOException, InterruptedException {
+        try {
+            int deleted = batches.take().get();
+            synchronized (this) {
+                this.deletedObjects += deleted;
+            }
+            reportProgress();
+            return deleted;
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /*
+     * collections are empty once their data objects are gone, remove the
+     * deepest first
+     */
+    private void deleteCollections(String root) throws IOException {
+        List<String> collections = listCollections(root);
+        collections.add(root);
+        Collections.sort(collections, new Comparator<String>() {
+            @Override
+            public int compare(String c1, String c2) {
+                return c2.length() - c1.length();
+            }
+        });
+
+        for (String collection : collections) {
+            synchronized (this) {
+                if (this.keptCollections.contains(collection)) {
+                    continue;
+                }
+            }
+            try {
+                this.connection.deleteCollection(collection, false, this.force);
+                synchronized (this) {
+                    this.deletedCollections++;
+                }
+            } catch (IOException ex) {
+                addFailure(collection, ex);
+            }
+        }
+        reportProgress();
+    }
+
+    private List<String> listCollections(String root) throws IOException {
+        List<String> collections = new ArrayList<String>();
+        HirodsConnection.Listing listing = this.connection.listCollectionsRecursive(root);
+        try {
+            List<HirodsConnection.Entry> page;
+            while ((page = listing.nextPage()) != null) {
+                for (HirodsConnection.Entry entry : page) {
+                    collections.add(entry.getPath());
+                }
+            }
+        } finally {
+            listing.close();
+        }
+        return collections;
+    }
+
+    private synchronized boolean isFailed(String path) {
+        return this.failedPaths.contains(path);
+    }
+
+    private synchronized void addFailure(String path, Exception ex) {
+        this.failedPaths.add(path);
+        this.failedCount++;
+        if (this.failures.size() < MAX_REPORTED_FAILURES) {
+            this.failures.add(path);
+        }
+        LOG.debug("Failed to delete " + path, ex);
+
+        // removing an ancestor now would take the entry with it
+        String parent = path;
+        while (parent.length() > this.root.length()) {
+            parent = parent.substring(0, parent.lastIndexOf('/'));
+            if (!this.keptCollections.add(parent)) {
+                break;
+            }
+        }
+    }
+
+    private void reportProgress() {
+        if (this.progress != null) {
+            long objects;
+            long collections;
+            synchronized (this) {
+                objects = this.deletedObjects;
+                collections = this.deletedCollections;
+            }
+            this.progress.deleted(objects, collections);
+        }
+    }
+
+    private class ObjectDeleter implements Callable<Integer> {
+
+        private List<String> paths;
+
+        ObjectDeleter(List<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            int deleted = 0;
+            HirodsConnection connection = backend.connect();
+            try {
+                for (String path : this.paths) {
+                    try {
+                        connection.deleteDataObject(path, force);
+                        deleted++;
+                    } catch (IOException ex) {
+                        addFailure(path, ex);
+                    }
+                }
+                return deleted;
+            } finally {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Reads a data object as fixed size chunks fetched concurrently over
+ * independent connections, and hands bytes back in order.
+ */
+class HirodsParallelRangeReader {
+
+    private static final Log LOG = LogFactory.getLog(HirodsParallelRangeReader.class);
+
+    private String path;
+    private HirodsBackend backend;
+    private long fileLength;
+    private int chunkSize;
+    private int maxChunksInFlight;
+    private ExecutorService executor;
+    private LinkedList<Chunk> chunks = new LinkedList<Chunk>();
+    // set when the chunks in flight are no longer wanted
+    private AtomicBoolean cancelled = new AtomicBoolean();
+    private long nextChunkOffset = 0;
+    private byte[] current;
+    private long currentOffset = 0;
+
+    /**
+     * @param path absolute iRODS path of the data object
+     */
+    HirodsParallelRangeReader(Configuration conf, HirodsBackend backend, String path, long fileLength) {
+        this.path = path;
+        this.backend = backend;
+        this.fileLength = fileLength;
+        this.chunkSize = HirodsConfigUtils.getIrodsInputParallelChunkSize(conf);
+        this.maxChunksInFlight = (int) Math.max(1, HirodsConfigUtils.getIrodsInputParallelMaxInflight(conf) / this.chunkSize);
+
+        final String name = "hirods-read-" + path.substring(path.lastIndexOf('/') + 1);
+        this.executor = Executors.newFixedThreadPool(HirodsConfigUtils.getIrodsInputParallelThreads(conf), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Parallel reads pay off only when there is more than one chunk to fetch.
+     */
+    static boolean isEnabled(Configuration conf, long fileLength) {
+        return HirodsConfigUtils.getIrodsInputParallelThreads(conf) > 1
+                && fileLength > HirodsConfigUtils.getIrodsInputParallelChunkSize(conf);
+    }
+
+    /**
+     * Copy bytes starting at the given position of the data object.
+     */
+    synchronized int read(long pos, byte[] bytes, int off, int len) throws IOException {
+        if (pos >= this.fileLength) {
+            return -1;
+        }
+
+        if (this.current == null || pos < this.currentOffset || pos >= this.currentOffset + this.current.length) {
+            nextChunk(pos);
+        }
+
+        int chunkPos = (int) (pos - this.currentOffset);
+        int readLen = Math.min(len, this.current.length - chunkPos);
+        System.arraycopy(this.current, chunkPos, bytes, off, readLen);
+        return readLen;
+    }
+
+    synchronized void close() {
+        cancelAll();
+        this.current = null;
+        // fetches stop by themselves, an interrupt could cut a transfer
+        this.executor.shutdown();
+    }
+
+    private void nextChunk(long pos) throws IOException {
+        long chunkOffset = pos - (pos % this.chunkSize);
+        if (this.chunks.isEmpty() || this.chunks.getFirst().offset != chunkOffset) {
+            // out of order access, restart the pipeline
+            cancelAll();
+            this.nextChunkOffset = chunkOffset;
+        }
+        scheduleChunks();
+
+        Chunk chunk = this.chunks.removeFirst();
+        try {
+            this.current = chunk.data.get();
+            this.currentOffset = chunk.offset;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            cancelAll();
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        scheduleChunks();
+    }
+
+    private void scheduleChunks() {
+        while (this.chunks.size() < this.maxChunksInFlight && this.nextChunkOffset < this.fileLength) {
+            long offset = this.nextChunkOffset;
+            int length = (int) Math.min(this.chunkSize, this.fileLength - offset);
+            this.chunks.addLast(new Chunk(offset, this.executor.submit(new ChunkFetcher(offset, length, this.cancelled))));
+            this.nextChunkOffset += length;
+        }
+    }
+
+    /*
+     * fetches in progress are not interrupted, they see the flag before their
+     * next read and give their connection back in a clean state
+     */
+    private void cancelAll() {
+        this.cancelled.set(true);
+        this.cancelled = new AtomicBoolean();
+        for (Chunk chunk : this.chunks) {
+            chunk.data.cancel(false);
+        }
+        this.chunks.clear();
+    }
+
+    private static class Chunk {
+        private long offset;
+        private Future<byte[]> data;
+
+        Chunk(long offset, Future<byte[]> data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    private class ChunkFetcher implements Callable<byte[]> {
+
+        private long offset;
+        private int length;
+        private AtomicBoolean cancelled;
+
+        ChunkFetcher(long offset, int length, AtomicBoolean cancelled) {
+            this.offset = offset;
+            this.length = length;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * @return the chunk, or null if it was cancelled
+         */
+        @Override
+        public byte[] call() throws IOException {
+            if (this.cancelled.get()) {
+                return null;
+            }
+            HirodsConnection connection = backend.connect();
+            HirodsConnection.Handle raf = null;
+            boolean clean = false;
+            try {
+                raf = connection.openRead(path);
+                raf.seek(this.offset);
+
+                byte[] data = new byte[this.length];
+                int filled = 0;
+                while (filled < this.length && !this.cancelled.get()) {
+                    int ret = raf.read(data, filled, this.length - filled);
+                    if (ret < 0) {
+                        throw new IOException("Unexpected EOF at " + (this.offset + filled) + " in " + path);
+                    }
+                    filled += ret;
+                }
+                clean = true;
+                return filled < this.length ? null : data;
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException ex) {
+                        clean = false;
+                        LOG.warn("Failed to close " + path, ex);
+                    }
+                }
+                if (clean) {
+                    connection.close();
+                } else {
+                    // a failed transfer may have left data on the wire
+                    connection.discard();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A bounded pool of authenticated connections of some kind.
+ *
+ * At most "fs.irods.connection.pool.max_active" connections are handed out
+ * at a time. Returned connections are kept idle per key instead of being
+ * disconnected, so the next checkout skips connect and authentication.
+ * A connection idle for longer than "fs.irods.connection.pool.validate_after"
+ * is validated with a round trip to the server before it is handed out, so
+ * connections the server or a firewall dropped silently are not.
+ * Subclasses tell how to identify, probe, validate and disconnect a
+ * connection.
+ */
+public abstract class HirodsPool<C> {
+
+    private Semaphore permits;
+    private int maxIdle;
+    private long idleTimeout;
+    private long maxLifetime;
+    private long checkoutTimeout;
+    private long validateAfter;
+    private Map<String, LinkedList<Pooled<C>>> idleConnections = new HashMap<String, LinkedList<Pooled<C>>>();
+    private Map<Object, Pooled<C>> activeConnections = new HashMap<Object, Pooled<C>>();
+    private boolean closed = false;
+    private HirodsMetrics metrics;
+
+    /**
+     * @param metrics receives the time taken to hand out connections, may be
+     * null
+     */
+    protected HirodsPool(Configuration conf, HirodsMetrics metrics) {
+        this.metrics = metrics;
+        this.permits = new Semaphore(HirodsConfigUtils.getIrodsConnectionPoolMaxActive(conf), true);
+        this.maxIdle = HirodsConfigUtils.getIrodsConnectionPoolMaxIdle(conf);
+        this.idleTimeout = HirodsConfigUtils.getIrodsConnectionPoolIdleTimeout(conf);
+        this.maxLifetime = HirodsConfigUtils.getIrodsConnectionPoolMaxLifetime(conf);
+        this.checkoutTimeout = HirodsConfigUtils.getIrodsConnectionPoolCheckoutTimeout(conf);
+        this.validateAfter = HirodsConfigUtils.getIrodsConnectionPoolValidateAfter(conf);
+    }
+
+    /**
+     * Makes a new connection when no idle one is left.
+     */
+    public interface Connector<C> {
+
+        C connect() throws IOException;
+    }
+
+    /**
+     * @return what the connection is known by while it is handed out
+     */
+    protected abstract Object identify(C connection);
+
+    protected abstract boolean isConnected(C connection);
+
+    /**
+     * Make a cheap request to the server over the connection.
+     *
+     * @return false if the server did not answer
+     */
+    protected abstract boolean validate(C connection);
+
+    /**
+     * Disconnect without throwing.
+     */
+    protected abstract void disconnect(C connection);
+
+    /**
+     * Hand out an idle connection kept under the key, or a new one from the
+     * connector. Blocks while the maximum number of connections is out.
+     *
+     * @throws IOException if no connection was returned within
+     * "fs.irods.connection.pool.checkout_timeout" or the connector failed
+     */
+    public C checkout(String key, Connector<C> connector) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return doCheckout(key, connector);
+        } finally {
+            if (this.metrics != null) {
+                this.metrics.record(HirodsMetrics.OP_CONNECT, start);
+            }
+        }
+    }
+
+    private C doCheckout(String key, Connector<C> connector) throws IOException {
+        reclaimLostConnections();
+
+        try {
+            if (!this.permits.tryAcquire(this.checkoutTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for an iRODS connection");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an iRODS connection");
+        }
+
+        try {
+            Pooled<C> pooled = checkoutIdle(key);
+            if (pooled != null) {
+                return pooled.connection;
+            }
+
+            C connection = connector.connect();
+            synchronized (this) {
+                this.activeConnections.put(identify(connection), new Pooled<C>(connection));
+            }
+            return connection;
+        } catch (IOException ex) {
+            this.permits.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Take a connection back, keeping it idle under the key if it is healthy
+     * and there is room.
+     */
+    public void checkin(String key, C connection) {
+        Pooled<C> pooled;
+        boolean keep = false;
+        synchronized (this) {
+            pooled = this.activeConnections.remove(identify(connection));
+            if (pooled == null) {
+                // not ours or already reclaimed
+                pooled = new Pooled<C>(connection);
+            } else {
+                this.permits.release();
+            }
+
+            long now = System.currentTimeMillis();
+            if (!this.closed && isHealthy(pooled, now)) {
+                LinkedList<Pooled<C>> idle = getIdleList(key);
+                if (idle.size() < this.maxIdle) {
+                    pooled.lastUsed = now;
+                    idle.addFirst(pooled);
+                    keep = true;
+                }
+            }
+        }
+
+        if (!keep) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Stop counting a connection that was discarded without being checked
+     * in.
+     */
+    public synchronized void forget(Object identity) {
+        if (this.activeConnections.remove(identity) != null) {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Disconnect all idle connections and refuse to keep connections returned
+     * after this point.
+     */
+    public void destroy() {
+        List<Pooled<C>> toClose = new ArrayList<Pooled<C>>();
+        synchronized (this) {
+            this.closed = true;
+            for (LinkedList<Pooled<C>> idle : this.idleConnections.values()) {
+                toClose.addAll(idle);
+            }
+            this.idleConnections.clear();
+        }
+
+        for (Pooled<C> pooled : toClose) {
+            disconnect(pooled.connection);
+        }
+    }
+
+    /**
+     * Disconnect idle connections that exceeded the idle timeout or the
+     * maximum lifetime.
+     */
+    public void evictIdleConnections() {
+        List<Pooled<C>> toClose = new ArrayList<Pooled<C>>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (LinkedList<Pooled<C>> idle : this.idleConnections.values()) {
+                Iterator<Pooled<C>> iter = idle.iterator();
+                while (iter.hasNext()) {
+                    Pooled<C> pooled = iter.next();
+                    if (now - pooled.lastUsed > this.idleTimeout || !isHealthy(pooled, now)) {
+                        iter.remove();
+                        toClose.add(pooled);
+                    }
+                }
+            }
+        }
+
+        for (Pooled<C> pooled : toClose) {
+            disconnect(pooled.connection);
+        }
+    }
+
+    public synchronized int getNumActive() {
+        return this.activeConnections.size();
+    }
+
+    public synchronized int getNumIdle() {
+        int count = 0;
+        for (LinkedList<Pooled<C>> idle : this.idleConnections.values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    private Pooled<C> checkoutIdle(String key) {
+        evictIdleConnections();
+
+        while (true) {
+            List<Pooled<C>> toClose = new ArrayList<Pooled<C>>();
+            Pooled<C> found = null;
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                LinkedList<Pooled<C>> idle = getIdleList(key);
+                while (!idle.isEmpty()) {
+                    Pooled<C> pooled = idle.removeFirst();
+                    if (isHealthy(pooled, now)) {
+                        this.activeConnections.put(identify(pooled.connection), pooled);
+                        found = pooled;
+                        break;
+                    }
+                    toClose.add(pooled);
+                }
+            }
+
+            for (Pooled<C> pooled : toClose) {
+                disconnect(pooled.connection);
+            }
+            if (found == null || now - found.lastUsed < this.validateAfter || validate(found.connection)) {
+                return found;
+            }
+
+            // the caller's permit covers the next candidate
+            synchronized (this) {
+                this.activeConnections.remove(identify(found.connection));
+            }
+            disconnect(found.connection);
+        }
+    }
+
+    /*
+     * connections dropped for errors never come back through checkin, so
+     * give their permits back here
+     */
+    private void reclaimLostConnections() {
+        synchronized (this) {
+            Iterator<Pooled<C>> iter = this.activeConnections.values().iterator();
+            while (iter.hasNext()) {
+                if (!isConnected(iter.next().connection)) {
+                    iter.remove();
+                    this.permits.release();
+                }
+            }
+        }
+    }
+
+    private LinkedList<Pooled<C>> getIdleList(String key) {
+        LinkedList<Pooled<C>> idle = this.idleConnections.get(key);
+        if (idle == null) {
+            idle = new LinkedList<Pooled<C>>();
+            this.idleConnections.put(key, idle);
+        }
+        return idle;
+    }
+
+    private boolean isHealthy(Pooled<C> pooled, long now) {
+        if (this.maxLifetime > 0 && now - pooled.created > this.maxLifetime) {
+            return false;
+        }
+        return isConnected(pooled.connection);
+    }
+
+    private static class Pooled<C> {
+        private C connection;
+        private long created;
+        private long lastUsed;
+
+        Pooled(C connection) {
+            this.connection = connection;
+            this.created = System.currentTimeMillis();
+            this.lastUsed = this.created;
+        }
+    }
+}
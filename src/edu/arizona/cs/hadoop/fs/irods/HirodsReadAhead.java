@@ -0,0 +1,219 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Prefetches the buffers following the one being consumed on a background
+ * thread.
+ *
+ * The background thread reads through a handle of its own, over a connection
+ * of its own, so its requests do not queue behind those of the reader.
+ * Blocks are fetched the way the stream reads, through the block cache and
+ * the parallel reader when it uses them. Bytes are counted as read when the
+ * reader takes a block, not when a block is fetched.
+ * The number of buffers fetched ahead follows the ratio between the time
+ * taken to fetch a buffer and the time the reader takes to consume one.
+ */
+class HirodsReadAhead {
+
+    private static final Log LOG = LogFactory.getLog(HirodsReadAhead.class);
+
+    private HirodsInputStream is;
+    private int bufferSize;
+    private int maxDepth;
+    private int depth = 1;
+    private ExecutorService executor;
+    private LinkedList<Block> blocks = new LinkedList<Block>();
+    private LinkedList<byte[]> freeBuffers = new LinkedList<byte[]>();
+    private long nextBlockOffset = 0;
+    private long lastTakeTime = 0;
+    // only touched on the background thread
+    private HirodsConnection.Handle raf;
+    private volatile long lastFetchNanos = 0;
+
+    HirodsReadAhead(HirodsInputStream is, int bufferSize, int maxDepth) {
+        this.is = is;
+        this.bufferSize = bufferSize;
+        this.maxDepth = maxDepth;
+
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hirods-readahead");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Take the prefetched block holding the given position. Blocks before the
+     * position are dropped and a position outside the prefetched window
+     * restarts prefetching from there.
+     *
+     * @return the block, or null at EOF
+     */
+    synchronized Block take(long pos) throws IOException {
+        if (pos >= this.is.getSize()) {
+            return null;
+        }
+
+        while (!this.blocks.isEmpty() && this.blocks.getFirst().end() <= pos) {
+            discard(this.blocks.removeFirst());
+        }
+        if (this.blocks.isEmpty() || this.blocks.getFirst().offset > pos) {
+            cancel();
+            this.nextBlockOffset = pos;
+        }
+        schedule();
+
+        Block block = this.blocks.removeFirst();
+        try {
+            block.data.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            cancel();
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+
+        this.is.countBytesRead(block.length);
+        adjustDepth();
+        schedule();
+        return block;
+    }
+
+    /**
+     * Is the position covered by blocks being prefetched?
+     */
+    synchronized boolean isPrefetched(long pos) {
+        if (this.blocks.isEmpty()) {
+            return false;
+        }
+        return this.blocks.getFirst().offset <= pos && pos < this.blocks.getLast().end();
+    }
+
+    /**
+     * Give back a buffer that is no longer used by the reader.
+     */
+    synchronized void recycle(byte[] buffer) {
+        if (buffer != null && buffer.length == this.bufferSize && this.freeBuffers.size() <= this.maxDepth) {
+            this.freeBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * Drop all prefetched blocks.
+     */
+    synchronized void cancel() {
+        while (!this.blocks.isEmpty()) {
+            discard(this.blocks.removeFirst());
+        }
+    }
+
+    synchronized void close() {
+        cancel();
+        this.freeBuffers.clear();
+        this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (raf != null) {
+                    is.closeHandle(raf);
+                    raf = null;
+                }
+            }
+        });
+        this.executor.shutdown();
+    }
+
+    /*
+     * depth follows how many buffers the reader consumes while one is
+     * fetched
+     */
+    private void adjustDepth() {
+        long now = System.nanoTime();
+        if (this.lastTakeTime > 0 && this.lastFetchNanos > 0) {
+            long consumeNanos = Math.max(1, now - this.lastTakeTime);
+            long wanted = (this.lastFetchNanos + consumeNanos - 1) / consumeNanos;
+            this.depth = (int) Math.max(1, Math.min(this.maxDepth, wanted));
+        }
+        this.lastTakeTime = now;
+    }
+
+    private void schedule() {
+        long size;
+        try {
+            size = this.is.getSize();
+        } catch (IOException ex) {
+            return;
+        }
+
+        while (this.blocks.size() < this.depth && this.nextBlockOffset < size) {
+            byte[] buffer = this.freeBuffers.isEmpty() ? new byte[this.bufferSize] : this.freeBuffers.removeFirst();
+            int length = (int) Math.min(this.bufferSize, size - this.nextBlockOffset);
+            Block block = new Block(this.nextBlockOffset, buffer, length);
+            block.data = this.executor.submit(new Fetcher(block));
+            this.blocks.addLast(block);
+            this.nextBlockOffset += length;
+        }
+    }
+
+    private void discard(Block block) {
+        // a running fetch still writes into the buffer, so only reuse idle ones
+        if (block.data.cancel(false) || block.data.isDone()) {
+            recycle(block.buffer);
+        }
+    }
+
+    static class Block {
+        long offset;
+        byte[] buffer;
+        int length;
+        private Future<Integer> data;
+
+        Block(long offset, byte[] buffer, int length) {
+            this.offset = offset;
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        long end() {
+            return this.offset + this.length;
+        }
+    }
+
+    private class Fetcher implements Callable<Integer> {
+
+        private Block block;
+
+        Fetcher(Block block) {
+            this.block = block;
+        }
+
+        @Override
+        public Integer call() throws IOException {
+            long start = System.nanoTime();
+            if (raf == null) {
+                raf = is.openHandle();
+            }
+
+            int filled = is.fetch(raf, this.block.offset, this.block.buffer, this.block.length);
+            this.block.length = filled;
+            lastFetchNanos = System.nanoTime() - start;
+            return filled;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Output stream that writes a data object in segments. A segment ends after
+ * the given number of bytes or the given time, and the data object
+ * descriptor is closed at the end of each segment. The next segment reopens
+ * the data object at the current offset on first write, so no descriptor is
+ * held for the whole lifetime of the stream.
+ *
+ * Each segment writes over a pooled connection of its own, given back when
+ * the segment ends, so ending a segment never touches the connection the
+ * writing thread uses for other calls.
+ *
+ * A segment that outlives its time is ended by flush(), or by a background
+ * timer if nothing more is written to the stream. The timer ends a segment
+ * only while it holds the stream's lock and skips streams busy in a call of
+ * the writing thread, which end the segment themselves.
+ *
+ * HirodsFileSystem.create() returns this stream for every data object once
+ * "fs.irods.output.segment.size" or "fs.irods.output.segment.interval" is
+ * set, not only for direct output.
+ */
+public class HirodsSegmentedOutputStream extends OutputStream {
+
+    private static Timer timer;
+
+    private HirodsFileSystem fs;
+    private Path path;
+    private int bufferSize;
+    private long segmentSize;
+    private long segmentInterval;
+    private OutputStream current;
+    private long pos = 0;
+    private long segmentStart = 0;
+    private long segmentOpenedAt = 0;
+    private boolean closed = false;
+    private ReentrantLock lock = new ReentrantLock();
+    private TimerTask expiry;
+    // failure to end a segment on the timer, thrown by the next call
+    private IOException pending;
+
+    /**
+     * @param segmentSize bytes per segment, 0 for no size limit
+     * @param segmentInterval milliseconds per segment, 0 for no time limit
+     */
+    public HirodsSegmentedOutputStream(HirodsFileSystem fs, Path path, boolean overwrite, int bufferSize, long segmentSize, long segmentInterval) throws IOException {
+        this.fs = fs;
+        this.path = path;
+        this.bufferSize = bufferSize;
+        this.segmentSize = segmentSize;
+        this.segmentInterval = segmentInterval;
+
+        this.current = fs.createStream(path, overwrite, bufferSize, true);
+        this.segmentOpenedAt = System.currentTimeMillis();
+
+        if (segmentInterval > 0) {
+            this.expiry = new TimerTask() {
+                @Override
+                public void run() {
+                    endExpiredSegment();
+                }
+            };
+            getTimer().schedule(this.expiry, segmentInterval, segmentInterval);
+        }
+    }
+
+    private static synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new Timer("hirods-segments", true);
+        }
+        return timer;
+    }
+
+    public long getPos() {
+        this.lock.lock();
+        try {
+            return this.pos;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.lock.lock();
+        try {
+            checkSegment();
+            this.current.write(b);
+            this.pos++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.lock.lock();
+        try {
+            while (len > 0) {
+                checkSegment();
+                int toWrite = len;
+                if (this.segmentSize > 0) {
+                    toWrite = (int) Math.min(len, this.segmentStart + this.segmentSize - this.pos);
+                }
+                this.current.write(b, off, toWrite);
+                this.pos += toWrite;
+                off += toWrite;
+                len -= toWrite;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.lock.lock();
+        try {
+            throwPending();
+            if (this.current != null) {
+                if (isExpired()) {
+                    endSegment();
+                } else {
+                    this.current.flush();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.expiry != null) {
+                this.expiry.cancel();
+            }
+            if (this.current != null) {
+                endSegment();
+            }
+            throwPending();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /*
+     * called on the timer thread. a stream in use is left to its writer, so
+     * the shared timer never waits on a slow write
+     */
+    private void endExpiredSegment() {
+        if (!this.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (this.closed || this.current == null || !isExpired()) {
+                return;
+            }
+            endSegment();
+        } catch (IOException ex) {
+            if (this.pending == null) {
+                this.pending = ex;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean isExpired() {
+        return this.segmentInterval > 0 && System.currentTimeMillis() - this.segmentOpenedAt >= this.segmentInterval;
+    }
+
+    private void endSegment() throws IOException {
+        OutputStream os = this.current;
+        this.current = null;
+        os.close();
+    }
+
+    private void throwPending() throws IOException {
+        if (this.pending != null) {
+            IOException ex = this.pending;
+            this.pending = null;
+            throw ex;
+        }
+    }
+
+    private void checkSegment() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        throwPending();
+
+        if (this.current != null) {
+            boolean full = this.segmentSize > 0 && this.pos - this.segmentStart >= this.segmentSize;
+            if (full || isExpired()) {
+                endSegment();
+            }
+        }
+
+        if (this.current == null) {
+            this.current = this.fs.openStreamForWrite(this.path, this.pos, this.bufferSize, true);
+            this.segmentStart = this.pos;
+            this.segmentOpenedAt = System.currentTimeMillis();
+        }
+    }
+}
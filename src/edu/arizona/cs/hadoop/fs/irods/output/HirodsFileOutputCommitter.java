@@ -16,8 +16,28 @@
  */
 package edu.arizona.cs.hadoop.fs.irods.output;
 
+import edu.arizona.cs.hadoop.fs.irods.HirodsBundleExtractor;
+import edu.arizona.cs.hadoop.fs.irods.HirodsFileChecksum;
+import edu.arizona.cs.hadoop.fs.irods.HirodsFileSystem;
+import edu.arizona.cs.hadoop.fs.irods.HirodsMetrics;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsTarUtils;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +49,7 @@ import org.apache.hadoop.mapreduce.JobStatus;
 import org.apache.hadoop.mapreduce.OutputCommitter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -47,11 +68,19 @@ public class HirodsFileOutputCommitter extends OutputCommitter {
      * Temporary directory name
      */
     protected static final String TEMP_DIR_NAME = "_temporary";
+    /**
+     * Job counter group of iRODS metrics
+     */
+    public static final String COUNTER_GROUP = "iRODS";
     private FileSystem workFileSystem = null;
     private FileSystem outputFileSystem = null;
     private Path outputPath = null;
     private Path tempPath = null;
     private Path workPath = null;
+    private boolean direct = false;
+    // connections held by range writers across all files uploaded at once
+    private Semaphore rangePermits = null;
+    private int maxRanges = 0;
 
     /**
      * Create a file output committer
@@ -64,9 +93,22 @@ public class HirodsFileOutputCommitter extends OutputCommitter {
         if (outputPath != null && tempPath != null) {
             this.outputPath = outputPath;
             this.outputFileSystem = outputPath.getFileSystem(context.getConfiguration());
-            this.tempPath = tempPath;
-            this.workFileSystem = tempPath.getFileSystem(context.getConfiguration());
-            this.workPath = new Path(tempPath,
+            this.direct = HirodsConfigUtils.getIrodsOutputDirect(context.getConfiguration());
+            if (this.direct) {
+                // write straight to iRODS under the output path, no HDFS staging
+                this.tempPath = outputPath;
+                this.workFileSystem = this.outputFileSystem;
+                if (HirodsConfigUtils.getIrodsOutputSegmentSize(context.getConfiguration()) <= 0
+                        && HirodsConfigUtils.getIrodsOutputSegmentInterval(context.getConfiguration()) <= 0) {
+                    LOG.warn("Direct output without " + HirodsConfigUtils.CONFIG_IRODS_OUTPUT_SEGMENT_SIZE
+                            + " or " + HirodsConfigUtils.CONFIG_IRODS_OUTPUT_SEGMENT_INTERVAL
+                            + " holds a descriptor for the whole task");
+                }
+            } else {
+                this.tempPath = tempPath;
+                this.workFileSystem = tempPath.getFileSystem(context.getConfiguration());
+            }
+            this.workPath = new Path(this.tempPath,
                     (HirodsFileOutputCommitter.TEMP_DIR_NAME + Path.SEPARATOR
                     + "_" + context.getTaskAttemptID().toString())).makeQualified(this.workFileSystem);
         }
@@ -103,8 +145,10 @@ public class HirodsFileOutputCommitter extends OutputCommitter {
     @Deprecated
     public void cleanupJob(JobContext context) throws IOException {
         if (this.tempPath != null) {
-            if (this.workFileSystem.exists(this.tempPath)) {
-                this.workFileSystem.delete(this.tempPath, true);
+            // in direct mode the temp path is the job output, keep it
+            Path cleanupPath = this.direct ? new Path(this.tempPath, HirodsFileOutputCommitter.TEMP_DIR_NAME) : this.tempPath;
+            if (this.workFileSystem.exists(cleanupPath)) {
+                this.workFileSystem.delete(cleanupPath, true);
             }
         } else {
             LOG.warn("Temp path is null in cleanup");
@@ -143,7 +187,17 @@ public class HirodsFileOutputCommitter extends OutputCommitter {
             context.progress();
             if (this.workFileSystem.exists(this.workPath)) {
                 // Move the task outputs to their final place
-                moveTaskOutputsToIRODS(context, this.outputFileSystem, this.outputPath, this.workFileSystem, this.workPath);
+                int threads = HirodsConfigUtils.getIrodsOutputCommitThreads(context.getConfiguration());
+                long bundleThreshold = HirodsConfigUtils.getIrodsOutputBundleThreshold(context.getConfiguration());
+                if (this.direct) {
+                    renameTaskOutputsInIRODS(context, this.outputFileSystem, this.outputPath, this.workPath);
+                } else if (bundleThreshold > 0 && this.outputFileSystem instanceof HirodsBundleExtractor) {
+                    moveTaskOutputsToIRODSBundled(context, this.outputFileSystem, this.outputPath, this.workFileSystem, this.workPath, threads, bundleThreshold);
+                } else if (threads > 1) {
+                    moveTaskOutputsToIRODSParallel(context, this.outputFileSystem, this.outputPath, this.workFileSystem, this.workPath, threads);
+                } else {
+                    moveTaskOutputsToIRODS(context, this.outputFileSystem, this.outputPath, this.workFileSystem, this.workPath);
+                }
                 // Delete the temporary task-specific output directory
                 if (!this.workFileSystem.delete(this.workPath, true)) {
                     LOG.warn("Failed to delete the temporary output" + " directory of task: " + attemptId + " - " + this.workPath);
@@ -151,56 +205,521 @@ public class HirodsFileOutputCommitter extends OutputCommitter {
                 LOG.info("Saved output of task '" + attemptId + "' to " + this.outputPath);
             }
         }
+        publishMetrics(context);
+    }
+    
+    /**
+     * Add what the iRODS file system did since the last task to the job
+     * counters. Contexts without counters get the figures in the task log.
+     */
+    private void publishMetrics(TaskAttemptContext context) {
+        if (this.outputFileSystem instanceof HirodsFileSystem) {
+            HirodsMetrics metrics = ((HirodsFileSystem) this.outputFileSystem).getMetrics();
+            if (context instanceof TaskInputOutputContext) {
+                TaskInputOutputContext<?, ?, ?, ?> ioContext = (TaskInputOutputContext<?, ?, ?, ?>) context;
+                for (Map.Entry<String, Long> entry : metrics.takeCounterDeltas().entrySet()) {
+                    ioContext.getCounter(COUNTER_GROUP, entry.getKey()).increment(entry.getValue());
+                }
+            } else {
+                LOG.info(metrics.toString());
+            }
+        }
     }
 
     private void moveTaskOutputsToIRODS(TaskAttemptContext context, FileSystem outfs, Path outDir, FileSystem workfs, Path workOutput) throws IOException {
         context.progress();
         if (workfs.isFile(workOutput)) {
             Path finalOutputPath = getFinalPath(outDir, workOutput, this.workPath);
-            FSDataOutputStream irods_os = null;
-            FSDataInputStream temp_is = null;
-            try {
-                // commit to iRODS
-                irods_os = outfs.create(finalOutputPath, true);
-                temp_is = workfs.open(workOutput);
+            copyToIRODS(context, outfs, finalOutputPath, workfs, workOutput);
+        } else if (workfs.getFileStatus(workOutput).isDir()) {
+            FileStatus[] paths = workfs.listStatus(workOutput);
+            Path finalOutputPath = getFinalPath(outDir, workOutput, this.workPath);
+            outfs.mkdirs(finalOutputPath);
+            if (paths != null) {
+                for (FileStatus path : paths) {
+                    moveTaskOutputsToIRODS(context, outfs, outDir, workfs, path.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the task outputs written directly to iRODS into place with server
+     * side renames. A directory missing in the output is moved as a whole.
+     */
+    private void renameTaskOutputsInIRODS(TaskAttemptContext context, FileSystem outfs, Path outDir, Path workOutput) throws IOException {
+        context.progress();
+        Path finalOutputPath = getFinalPath(outDir, workOutput, this.workPath);
+        FileStatus status = outfs.getFileStatus(workOutput);
+        if (!status.isDir()) {
+            if (outfs.exists(finalOutputPath)) {
+                outfs.delete(finalOutputPath, false);
+            }
+            if (!outfs.rename(workOutput, finalOutputPath)) {
+                throw new IOException("Failed to rename " + workOutput + " to " + finalOutputPath);
+            }
+            LOG.debug("Moved " + workOutput + " to " + finalOutputPath);
+        } else if (!workOutput.equals(this.workPath) && !outfs.exists(finalOutputPath)) {
+            if (!outfs.rename(workOutput, finalOutputPath)) {
+                throw new IOException("Failed to rename " + workOutput + " to " + finalOutputPath);
+            }
+            LOG.debug("Moved " + workOutput + " to " + finalOutputPath);
+        } else {
+            outfs.mkdirs(finalOutputPath);
+            FileStatus[] paths = outfs.listStatus(workOutput);
+            if (paths != null) {
+                for (FileStatus path : paths) {
+                    renameTaskOutputsInIRODS(context, outfs, outDir, path.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the task outputs with multiple threads. Directories are created
+     * first, then files are uploaded concurrently, each over its own
+     * connection.
+     */
+    private void moveTaskOutputsToIRODSParallel(TaskAttemptContext context, FileSystem outfs, Path outDir, FileSystem workfs, Path workOutput, int threads) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        collectTaskOutputs(context, outfs, outDir, workfs, workfs.getFileStatus(workOutput), files);
+        List<Path> paths = new ArrayList<Path>();
+        for (FileStatus file : files) {
+            paths.add(file.getPath());
+        }
+        copyFilesToIRODS(context, outfs, outDir, workfs, paths, threads);
+    }
 
-                byte[] buffer = new byte[100 * 1024];
-                int bytes_read = 0;
+    /**
+     * Upload staged files with up to the given number of threads, each over
+     * its own connection. The output directories must exist.
+     */
+    private void copyFilesToIRODS(final TaskAttemptContext context, final FileSystem outfs, Path outDir, final FileSystem workfs, List<Path> files, int threads) throws IOException {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hirods-commit");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        List<Future<Path>> uploads = new ArrayList<Future<Path>>();
+        try {
+            for (final Path file : files) {
+                final Path finalOutputPath = getFinalPath(outDir, file, this.workPath);
+                uploads.add(executor.submit(new Callable<Path>() {
+                    @Override
+                    public Path call() throws IOException {
+                        copyToIRODS(context, outfs, finalOutputPath, workfs, file);
+                        return finalOutputPath;
+                    }
+                }));
+            }
+
+            List<String> failures = new ArrayList<String>();
+            IOException firstFailure = null;
+            for (int i = 0; i < uploads.size(); i++) {
+                try {
+                    Path uploaded = uploads.get(i).get();
+                    synchronized (context) {
+                        context.setStatus("Committed " + (i + 1) + "/" + uploads.size() + " : " + uploaded.getName());
+                        context.progress();
+                    }
+                } catch (ExecutionException ex) {
+                    failures.add(files.get(i).toString());
+                    if (firstFailure == null) {
+                        firstFailure = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+                    }
+                }
+            }
+
+            if (firstFailure != null) {
+                throw new IOException("Failed to commit " + failures.size() + " of " + files.size() + " files : " + failures, firstFailure);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create the output directories and list the files to upload.
+     */
+    private void collectTaskOutputs(TaskAttemptContext context, FileSystem outfs, Path outDir, FileSystem workfs, FileStatus workOutput, List<FileStatus> files) throws IOException {
+        context.progress();
+        if (!workOutput.isDir()) {
+            files.add(workOutput);
+        } else {
+            FileStatus[] paths = workfs.listStatus(workOutput.getPath());
+            Path finalOutputPath = getFinalPath(outDir, workOutput.getPath(), this.workPath);
+            outfs.mkdirs(finalOutputPath);
+            if (paths != null) {
+                for (FileStatus path : paths) {
+                    collectTaskOutputs(context, outfs, outDir, workfs, path, files);
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the task outputs, packing files below the threshold into tar
+     * bundles that the output file system extracts in one request each.
+     * Larger files are uploaded as usual.
+     */
+    private void moveTaskOutputsToIRODSBundled(TaskAttemptContext context, FileSystem outfs, Path outDir, FileSystem workfs, Path workOutput, int threads, long threshold) throws IOException {
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        collectTaskOutputs(context, outfs, outDir, workfs, workfs.getFileStatus(workOutput), files);
 
-                while ((bytes_read = temp_is.read(buffer)) != -1) {
-                    irods_os.write(buffer, 0, bytes_read);
+        long bundleSize = HirodsConfigUtils.getIrodsOutputBundleSize(context.getConfiguration());
+        List<List<FileStatus>> bundles = new ArrayList<List<FileStatus>>();
+        List<FileStatus> bundle = new ArrayList<FileStatus>();
+        long size = 0;
+        List<Path> others = new ArrayList<Path>();
+        for (FileStatus file : files) {
+            String name = getBundleEntryName(file.getPath());
+            if (file.getLen() >= threshold || !HirodsTarUtils.fitsHeader(name, file.getLen())) {
+                others.add(file.getPath());
+                continue;
+            }
+            long entrySize = HirodsTarUtils.entrySize(file.getLen());
+            if (!bundle.isEmpty() && size + entrySize > bundleSize) {
+                bundles.add(bundle);
+                bundle = new ArrayList<FileStatus>();
+                size = 0;
+            }
+            bundle.add(file);
+            size += entrySize;
+        }
+        if (!bundle.isEmpty()) {
+            bundles.add(bundle);
+        }
+
+        for (int i = 0; i < bundles.size(); i++) {
+            List<FileStatus> bundleFiles = bundles.get(i);
+            if (bundleFiles.size() == 1) {
+                // a bundle of one saves nothing
+                others.add(bundleFiles.get(0).getPath());
+            } else if (!uploadBundle(context, outfs, outDir, workfs, bundleFiles, i)) {
+                for (FileStatus file : bundleFiles) {
+                    others.add(file.getPath());
                 }
-            } finally {
-                if (temp_is != null) {
+            }
+        }
+
+        copyFilesToIRODS(context, outfs, outDir, workfs, others, threads);
+    }
+
+    /**
+     * Upload staged files as one tar bundle and extract it in the output
+     * directory. The bundle is removed afterwards.
+     *
+     * @return false if the extraction failed and the files must be uploaded
+     * one by one
+     */
+    private boolean uploadBundle(TaskAttemptContext context, FileSystem outfs, Path outDir, FileSystem workfs, List<FileStatus> files, int index) throws IOException {
+        // a leading underscore keeps input formats from picking it up
+        Path bundle = new Path(outDir, "_" + context.getTaskAttemptID().toString() + "_" + index + ".tar");
+        // the bundle is verified as a whole before the server extracts it
+        MessageDigest digest = newVerifyDigest(context, outfs);
+        FSDataOutputStream bundle_os = outfs.create(bundle, true);
+        try {
+            OutputStream os = digest == null ? bundle_os : new DigestOutputStream(bundle_os, digest);
+            for (FileStatus file : files) {
+                FSDataInputStream temp_is = workfs.open(file.getPath());
+                try {
+                    HirodsTarUtils.writeFile(os, getBundleEntryName(file.getPath()), file.getLen(), file.getModificationTime(), temp_is);
+                } finally {
+                    temp_is.close();
+                }
+                context.progress();
+            }
+            HirodsTarUtils.writeEnd(os);
+        } finally {
+            bundle_os.close();
+        }
+
+        try {
+            if (digest != null) {
+                verifyChecksum((HirodsFileSystem) outfs, bundle, digest.getAlgorithm(), digest.digest());
+            }
+            ((HirodsBundleExtractor) outfs).extractBundle(bundle, outDir);
+            context.setStatus("Committed a bundle of " + files.size() + " files");
+            LOG.debug("Extracted " + files.size() + " files from " + bundle);
+            return true;
+        } catch (IOException ex) {
+            LOG.warn("Failed to verify or extract " + bundle + ", uploading its " + files.size() + " files one by one", ex);
+            return false;
+        } finally {
+            try {
+                outfs.delete(bundle, false);
+            } catch (IOException ex) {
+                LOG.warn("Failed to delete bundle " + bundle, ex);
+            }
+        }
+    }
+
+    private String getBundleEntryName(Path file) {
+        return this.workPath.toUri().relativize(file.toUri()).getPath();
+    }
+
+    /**
+     * Copy a staged file to iRODS and remove it from the work directory.
+     */
+    private void copyToIRODS(TaskAttemptContext context, FileSystem outfs, Path finalOutputPath, FileSystem workfs, Path workOutput) throws IOException {
+        int threads = HirodsConfigUtils.getIrodsOutputParallelThreads(context.getConfiguration());
+        if (threads > 1 && outfs instanceof HirodsFileSystem) {
+            long length = workfs.getFileStatus(workOutput).getLen();
+            if (length >= HirodsConfigUtils.getIrodsOutputParallelThreshold(context.getConfiguration())) {
+                try {
+                    copyToIRODSParallel(context, (HirodsFileSystem) outfs, finalOutputPath, workfs, workOutput, length, threads);
+                } finally {
+                    // remove temporary file
                     try {
-                        temp_is.close();
+                        workfs.delete(workOutput, true);
                     } catch (IOException ex) {
                         // ignore exceptions
                     }
                 }
+                return;
+            }
+        }
+
+        // the digest is computed from the bytes as they are copied
+        MessageDigest digest = newVerifyDigest(context, outfs);
 
-                // remove temporary file
+        FSDataOutputStream irods_os = null;
+        FSDataInputStream temp_is = null;
+        try {
+            // commit to iRODS
+            irods_os = outfs.create(finalOutputPath, true);
+            temp_is = workfs.open(workOutput);
+
+            byte[] buffer = new byte[100 * 1024];
+            int bytes_read = 0;
+
+            while ((bytes_read = temp_is.read(buffer)) != -1) {
+                irods_os.write(buffer, 0, bytes_read);
+                if (digest != null) {
+                    digest.update(buffer, 0, bytes_read);
+                }
+                context.progress();
+            }
+        } finally {
+            if (temp_is != null) {
                 try {
-                    workfs.delete(workOutput, true);
+                    temp_is.close();
                 } catch (IOException ex) {
                     // ignore exceptions
                 }
+            }
 
-                if (irods_os != null) {
-                    irods_os.close();
-                }
+            // remove temporary file
+            try {
+                workfs.delete(workOutput, true);
+            } catch (IOException ex) {
+                // ignore exceptions
             }
 
-            LOG.debug("Moved " + workOutput + " to " + finalOutputPath);
-        } else if (workfs.getFileStatus(workOutput).isDir()) {
-            FileStatus[] paths = workfs.listStatus(workOutput);
-            Path finalOutputPath = getFinalPath(outDir, workOutput, this.workPath);
-            outfs.mkdirs(finalOutputPath);
-            if (paths != null) {
-                for (FileStatus path : paths) {
-                    moveTaskOutputsToIRODS(context, outfs, outDir, workfs, path.getPath());
+            if (irods_os != null) {
+                irods_os.close();
+            }
+        }
+
+        if (digest != null) {
+            verifyChecksum((HirodsFileSystem) outfs, finalOutputPath, digest.getAlgorithm(), digest.digest());
+        }
+        LOG.debug("Moved " + workOutput + " to " + finalOutputPath);
+    }
+
+    /*
+     * a digest for the bytes uploaded, null if uploads are not verified
+     */
+    private MessageDigest newVerifyDigest(TaskAttemptContext context, FileSystem outfs) throws IOException {
+        if (!HirodsConfigUtils.getIrodsOutputVerifyChecksum(context.getConfiguration()) || !(outfs instanceof HirodsFileSystem)) {
+            return null;
+        }
+        return HirodsFileChecksum.newDigest(HirodsConfigUtils.getIrodsChecksumAlgorithm(context.getConfiguration()));
+    }
+
+    /**
+     * Compare the digest of the copied bytes with the checksum of the data
+     * object. The checksum registered in the catalog is used if there is one,
+     * otherwise the server computes and registers it, which streamed uploads
+     * usually need. A data object that cannot be verified fails the commit.
+     */
+    private void verifyChecksum(HirodsFileSystem outfs, Path finalOutputPath, String algorithm, byte[] digest) throws IOException {
+        HirodsFileChecksum checksum = (HirodsFileChecksum) outfs.getFileChecksum(finalOutputPath);
+        if (checksum == null) {
+            checksum = outfs.computeFileChecksum(finalOutputPath);
+        }
+        if (checksum == null) {
+            throw new IOException("No checksum returned for " + finalOutputPath + ", cannot verify it");
+        } else if (!checksum.getAlgorithmName().equals(algorithm)) {
+            throw new IOException("Cannot verify " + finalOutputPath + ", the server computes " + checksum.getAlgorithmName()
+                    + " but " + HirodsConfigUtils.CONFIG_IRODS_CHECKSUM_ALGORITHM + " is " + algorithm);
+        } else if (!checksum.matches(algorithm, digest)) {
+            throw new IOException("Checksum mismatch after uploading " + finalOutputPath + " : server " + checksum
+                    + ", staged " + new HirodsFileChecksum(algorithm, digest));
+        }
+    }
+
+    /*
+     * every range holds a connection until all ranges of its file are
+     * written, so the ranges of all files uploading at once must fit the
+     * pool, leaving a connection for everything else
+     */
+    private synchronized Semaphore getRangePermits(HirodsFileSystem outfs, int threads) {
+        if (this.rangePermits == null) {
+            int maxActive = HirodsConfigUtils.getIrodsConnectionPoolMaxActive(outfs.getConf());
+            this.maxRanges = Math.max(1, Math.min(threads, maxActive - 1));
+            this.rangePermits = new Semaphore(this.maxRanges, true);
+        }
+        return this.rangePermits;
+    }
+
+    /**
+     * Copy a large staged file by writing byte ranges of the data object
+     * concurrently, each over its own connection. Every range stream is
+     * closed only after all ranges are written, so the size iRODS registers
+     * on close covers the whole object.
+     *
+     * The connections for all ranges of the file are reserved before any
+     * range starts, from a budget shared by the files committed at once and
+     * smaller than the connection pool. A range never waits for a connection
+     * held by a range of another file.
+     */
+    private void copyToIRODSParallel(final TaskAttemptContext context, final HirodsFileSystem outfs, final Path finalOutputPath, final FileSystem workfs, final Path workOutput, long length, int threads) throws IOException {
+        Semaphore permits = getRangePermits(outfs, threads);
+        threads = Math.min(threads, this.maxRanges);
+        long rangeSize = (length + threads - 1) / threads;
+        int ranges = (int) ((length + rangeSize - 1) / rangeSize);
+        try {
+            permits.acquire(ranges);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+        MessageDigest digest = newVerifyDigest(context, outfs);
+        try {
+            copyRangesToIRODS(context, outfs, finalOutputPath, workfs, workOutput, length, rangeSize, ranges, digest);
+        } finally {
+            permits.release(ranges);
+        }
+
+        long uploaded = outfs.getFileStatus(finalOutputPath).getLen();
+        if (uploaded != length) {
+            throw new IOException("Uploaded " + finalOutputPath + " has " + uploaded + " bytes, staged " + length);
+        }
+        if (digest != null) {
+            verifyChecksum(outfs, finalOutputPath, digest.getAlgorithm(), digest.digest());
+        }
+        LOG.debug("Moved " + workOutput + " to " + finalOutputPath + " in " + ranges + " ranges");
+    }
+
+    /*
+     * the ranges are written by threads of their own, the calling thread
+     * feeds the staged file to the digest in order meanwhile
+     */
+    private void copyRangesToIRODS(final TaskAttemptContext context, final HirodsFileSystem outfs, final Path finalOutputPath, final FileSystem workfs, final Path workOutput, long length, long rangeSize, int ranges, MessageDigest digest) throws IOException {
+        // start from an empty data object
+        outfs.create(finalOutputPath, true).close();
+
+        final CountDownLatch written = new CountDownLatch(ranges);
+
+        ExecutorService executor = Executors.newFixedThreadPool(ranges, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hirods-put");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        List<Future<Long>> puts = new ArrayList<Future<Long>>();
+        try {
+            for (int i = 0; i < ranges; i++) {
+                final long start = i * rangeSize;
+                final long end = Math.min(length, start + rangeSize);
+                puts.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        FSDataOutputStream irods_os = null;
+                        FSDataInputStream temp_is = null;
+                        try {
+                            irods_os = outfs.openForWrite(finalOutputPath, start, 0);
+                            temp_is = workfs.open(workOutput);
+                            temp_is.seek(start);
+
+                            byte[] buffer = new byte[100 * 1024];
+                            long remaining = end - start;
+                            while (remaining > 0) {
+                                int bytes_read = temp_is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                                if (bytes_read < 0) {
+                                    throw new IOException("Unexpected EOF at " + (end - remaining) + " in " + workOutput);
+                                }
+                                irods_os.write(buffer, 0, bytes_read);
+                                remaining -= bytes_read;
+                                context.progress();
+                            }
+                            irods_os.flush();
+                        } finally {
+                            written.countDown();
+                            if (temp_is != null) {
+                                try {
+                                    temp_is.close();
+                                } catch (IOException ex) {
+                                    // ignore exceptions
+                                }
+                            }
+                            if (irods_os != null) {
+                                written.await();
+                                irods_os.close();
+                            }
+                        }
+                        return end - start;
+                    }
+                }));
+            }
+
+            if (digest != null) {
+                updateDigest(digest, workfs, workOutput);
+            }
+
+            for (Future<Long> put : puts) {
+                try {
+                    put.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    throw new IOException(ex.getCause());
                 }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, FileSystem workfs, Path workOutput) throws IOException {
+        FSDataInputStream temp_is = workfs.open(workOutput);
+        try {
+            byte[] buffer = new byte[100 * 1024];
+            int bytes_read;
+            while ((bytes_read = temp_is.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytes_read);
+            }
+        } finally {
+            temp_is.close();
         }
     }
 
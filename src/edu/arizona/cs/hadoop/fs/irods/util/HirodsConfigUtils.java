@@ -13,13 +13,90 @@ public class HirodsConfigUtils {
     public static final String CONFIG_IRODS_ZONE = "fs.irods.zone";
     public static final String CONFIG_IRODS_USERNAME = "fs.irods.account.username";
     public static final String CONFIG_IRODS_PASSWORD = "fs.irods.account.password";
+    public static final String CONFIG_IRODS_METADATA_CACHE_SIZE = "fs.irods.metadata.cache.size";
+    public static final String CONFIG_IRODS_METADATA_CACHE_TTL = "fs.irods.metadata.cache.ttl";
+    public static final String CONFIG_IRODS_METADATA_CACHE_NEGATIVE_TTL = "fs.irods.metadata.cache.negative_ttl";
+    public static final String CONFIG_IRODS_LIST_PAGE_SIZE = "fs.irods.list.page_size";
+    public static final String CONFIG_IRODS_BLOCK_SIZE = "fs.irods.block.size";
+    public static final String CONFIG_IRODS_BLOCK_SIZE_PATHS = "fs.irods.block.size.paths";
     public static final String CONFIG_IRODS_INPUT_BUFFER_SIZE = "fs.irods.input.buffer.size";
+    public static final String CONFIG_IRODS_INPUT_BUFFER_MAX_SIZE = "fs.irods.input.buffer.max_size";
+    public static final String CONFIG_IRODS_INPUT_READAHEAD_DEPTH = "fs.irods.input.readahead.depth";
+    public static final String CONFIG_IRODS_INPUT_PARALLEL_THREADS = "fs.irods.input.parallel.threads";
+    public static final String CONFIG_IRODS_INPUT_PARALLEL_CHUNK_SIZE = "fs.irods.input.parallel.chunk_size";
+    public static final String CONFIG_IRODS_INPUT_PARALLEL_MAX_INFLIGHT = "fs.irods.input.parallel.max_inflight";
+    public static final String CONFIG_IRODS_INPUT_CACHE_SIZE = "fs.irods.input.cache.size";
+    public static final String CONFIG_IRODS_INPUT_CACHE_BLOCK_SIZE = "fs.irods.input.cache.block_size";
+    public static final String CONFIG_IRODS_INPUT_CACHE_OFFHEAP = "fs.irods.input.cache.offheap";
+    public static final String CONFIG_IRODS_INPUT_DISK_CACHE_DIR = "fs.irods.input.disk_cache.dir";
+    public static final String CONFIG_IRODS_INPUT_DISK_CACHE_SIZE = "fs.irods.input.disk_cache.size";
+    public static final String CONFIG_IRODS_INPUT_DISK_CACHE_MAX_OBJECT_SIZE = "fs.irods.input.disk_cache.max_object_size";
     public static final String CONFIG_IRODS_OUTPUT_BUFFER_SIZE = "fs.irods.output.buffer.size";
+    public static final String CONFIG_IRODS_OUTPUT_BUFFER_MAX_SIZE = "fs.irods.output.buffer.max_size";
     public static final String CONFIG_IRODS_OUTPUT_BUFFERED_PATH = "fs.irods.output.hdfs_filebuffer.dir";
+    public static final String CONFIG_IRODS_CHECKSUM_ALGORITHM = "fs.irods.checksum.algorithm";
+    public static final String CONFIG_IRODS_INPUT_VERIFY_CHECKSUM = "fs.irods.input.verify_checksum";
+    public static final String CONFIG_IRODS_OUTPUT_VERIFY_CHECKSUM = "fs.irods.output.verify_checksum";
+    public static final String CONFIG_IRODS_DELETE_SERVER_SIDE = "fs.irods.delete.server_side";
+    public static final String CONFIG_IRODS_DELETE_FORCE = "fs.irods.delete.force";
+    public static final String CONFIG_IRODS_DELETE_THREADS = "fs.irods.delete.threads";
+    public static final String CONFIG_IRODS_METRICS_LOG_INTERVAL = "fs.irods.metrics.log_interval";
+    public static final String CONFIG_IRODS_FAKE_ROOT = "fs.irods.fake.root";
+    public static final String CONFIG_IRODS_FAKE_LATENCY = "fs.irods.fake.latency";
+    public static final String CONFIG_IRODS_FAKE_BANDWIDTH = "fs.irods.fake.bandwidth";
+    public static final String CONFIG_IRODS_FAKE_FAILURE_RATE = "fs.irods.fake.failure_rate";
+    public static final String CONFIG_IRODS_FAKE_CHECKSUM_ALGORITHM = "fs.irods.fake.checksum.algorithm";
+    public static final String CONFIG_IRODS_OUTPUT_DIRECT = "fs.irods.output.direct";
+    public static final String CONFIG_IRODS_OUTPUT_SEGMENT_SIZE = "fs.irods.output.segment.size";
+    public static final String CONFIG_IRODS_OUTPUT_SEGMENT_INTERVAL = "fs.irods.output.segment.interval";
+    public static final String CONFIG_IRODS_OUTPUT_PARALLEL_THREADS = "fs.irods.output.parallel.threads";
+    public static final String CONFIG_IRODS_OUTPUT_PARALLEL_THRESHOLD = "fs.irods.output.parallel.threshold";
+    public static final String CONFIG_IRODS_OUTPUT_COMMIT_THREADS = "fs.irods.output.commit.threads";
+    public static final String CONFIG_IRODS_OUTPUT_BUNDLE_THRESHOLD = "fs.irods.output.bundle.threshold";
+    public static final String CONFIG_IRODS_OUTPUT_BUNDLE_SIZE = "fs.irods.output.bundle.size";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_MAX_ACTIVE = "fs.irods.connection.pool.max_active";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_MAX_IDLE = "fs.irods.connection.pool.max_idle";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_IDLE_TIMEOUT = "fs.irods.connection.pool.idle_timeout";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_MAX_LIFETIME = "fs.irods.connection.pool.max_lifetime";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_CHECKOUT_TIMEOUT = "fs.irods.connection.pool.checkout_timeout";
+    public static final String CONFIG_IRODS_CONNECTION_POOL_VALIDATE_AFTER = "fs.irods.connection.pool.validate_after";
     
     public static final int DEFAULT_IRODS_PORT = 1247;
     public static final int DEFAULT_BUFFER_SIZE = 1024 * 100;
+    public static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+    public static final long DEFAULT_METADATA_CACHE_TTL = 30 * 1000; // 30 sec
+    public static final long DEFAULT_METADATA_CACHE_NEGATIVE_TTL = 5 * 1000; // 5 sec
+    public static final int DEFAULT_LIST_PAGE_SIZE = 5000;
+    public static final long DEFAULT_BLOCK_SIZE = 64 * 1024 * 1024; // 64MB
     public static final String DEFAULT_OUTPUT_BUFFERED_PATH = "hirods_temp/";
+    public static final int DEFAULT_BUFFER_MAX_SIZE = 0; // fixed size
+    public static final int DEFAULT_INPUT_READAHEAD_DEPTH = 0; // disabled
+    public static final int DEFAULT_INPUT_PARALLEL_THREADS = 1; // disabled
+    public static final int DEFAULT_INPUT_PARALLEL_CHUNK_SIZE = 8 * 1024 * 1024; // 8MB
+    public static final long DEFAULT_INPUT_PARALLEL_MAX_INFLIGHT = 64 * 1024 * 1024; // 64MB
+    public static final long DEFAULT_INPUT_CACHE_SIZE = 0; // disabled
+    public static final int DEFAULT_INPUT_CACHE_BLOCK_SIZE = 1024 * 1024; // 1MB
+    public static final long DEFAULT_INPUT_DISK_CACHE_SIZE = 10L * 1024 * 1024 * 1024; // 10GB
+    public static final long DEFAULT_INPUT_DISK_CACHE_MAX_OBJECT_SIZE = 64 * 1024 * 1024; // 64MB
+    public static final long DEFAULT_METRICS_LOG_INTERVAL = 0; // disabled
+    public static final long DEFAULT_FAKE_LATENCY = 0;
+    public static final long DEFAULT_FAKE_BANDWIDTH = 0; // unlimited
+    public static final float DEFAULT_FAKE_FAILURE_RATE = 0;
+    public static final long DEFAULT_OUTPUT_SEGMENT_SIZE = 0; // disabled
+    public static final long DEFAULT_OUTPUT_SEGMENT_INTERVAL = 0; // disabled
+    public static final int DEFAULT_OUTPUT_PARALLEL_THREADS = 1; // disabled
+    public static final long DEFAULT_OUTPUT_PARALLEL_THRESHOLD = 1024 * 1024 * 1024; // 1GB
+    public static final int DEFAULT_OUTPUT_COMMIT_THREADS = 1;
+    public static final long DEFAULT_OUTPUT_BUNDLE_THRESHOLD = 0; // disabled
+    public static final long DEFAULT_OUTPUT_BUNDLE_SIZE = 256 * 1024 * 1024; // 256MB
+    public static final int DEFAULT_DELETE_THREADS = 1; // serial
+    public static final String DEFAULT_CHECKSUM_ALGORITHM = "MD5";
+    public static final int DEFAULT_CONNECTION_POOL_MAX_ACTIVE = 32;
+    public static final int DEFAULT_CONNECTION_POOL_MAX_IDLE = 16;
+    public static final long DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT = 60 * 1000; // 1 min
+    public static final long DEFAULT_CONNECTION_POOL_MAX_LIFETIME = 30 * 60 * 1000; // 30 min
+    public static final long DEFAULT_CONNECTION_POOL_CHECKOUT_TIMEOUT = 5 * 60 * 1000; // 5 min
+    public static final long DEFAULT_CONNECTION_POOL_VALIDATE_AFTER = 10 * 1000; // 10 sec
     
     public static String getIrodsHost(Configuration conf) {
         return conf.get(CONFIG_IRODS_HOST, null);
@@ -61,6 +138,61 @@ public class HirodsConfigUtils {
         conf.set(CONFIG_IRODS_PASSWORD, password);
     }
     
+    public static int getIrodsMetadataCacheSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_METADATA_CACHE_SIZE, DEFAULT_METADATA_CACHE_SIZE);
+    }
+    
+    public static void setIrodsMetadataCacheSize(Configuration conf, int size) {
+        conf.setInt(CONFIG_IRODS_METADATA_CACHE_SIZE, size);
+    }
+    
+    public static long getIrodsMetadataCacheTTL(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_METADATA_CACHE_TTL, DEFAULT_METADATA_CACHE_TTL);
+    }
+    
+    public static void setIrodsMetadataCacheTTL(Configuration conf, long ttl) {
+        conf.setLong(CONFIG_IRODS_METADATA_CACHE_TTL, ttl);
+    }
+    
+    public static long getIrodsMetadataCacheNegativeTTL(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_METADATA_CACHE_NEGATIVE_TTL, DEFAULT_METADATA_CACHE_NEGATIVE_TTL);
+    }
+    
+    public static void setIrodsMetadataCacheNegativeTTL(Configuration conf, long ttl) {
+        conf.setLong(CONFIG_IRODS_METADATA_CACHE_NEGATIVE_TTL, ttl);
+    }
+    
+    public static int getIrodsListPageSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_LIST_PAGE_SIZE, DEFAULT_LIST_PAGE_SIZE);
+    }
+    
+    public static void setIrodsListPageSize(Configuration conf, int page_size) {
+        conf.setInt(CONFIG_IRODS_LIST_PAGE_SIZE, page_size);
+    }
+    
+    public static long getIrodsBlockSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public static void setIrodsBlockSize(Configuration conf, long block_size) {
+        conf.setLong(CONFIG_IRODS_BLOCK_SIZE, block_size);
+    }
+    
+    /**
+     * Per path block sizes as "path=size" entries
+     */
+    public static String[] getIrodsBlockSizePaths(Configuration conf) {
+        String[] entries = conf.getStrings(CONFIG_IRODS_BLOCK_SIZE_PATHS);
+        if(entries == null) {
+            return new String[0];
+        }
+        return entries;
+    }
+    
+    public static void setIrodsBlockSizePaths(Configuration conf, String... entries) {
+        conf.setStrings(CONFIG_IRODS_BLOCK_SIZE_PATHS, entries);
+    }
+    
     public static int getIrodsInputBufferSize(Configuration conf) {
         return conf.getInt(CONFIG_IRODS_INPUT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
     }
@@ -69,6 +201,94 @@ public class HirodsConfigUtils {
         conf.setInt(CONFIG_IRODS_INPUT_BUFFER_SIZE, buffer_size);
     }
     
+    public static int getIrodsInputBufferMaxSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_INPUT_BUFFER_MAX_SIZE, DEFAULT_BUFFER_MAX_SIZE);
+    }
+    
+    public static void setIrodsInputBufferMaxSize(Configuration conf, int max_size) {
+        conf.setInt(CONFIG_IRODS_INPUT_BUFFER_MAX_SIZE, max_size);
+    }
+    
+    public static int getIrodsInputReadaheadDepth(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_INPUT_READAHEAD_DEPTH, DEFAULT_INPUT_READAHEAD_DEPTH);
+    }
+    
+    public static void setIrodsInputReadaheadDepth(Configuration conf, int depth) {
+        conf.setInt(CONFIG_IRODS_INPUT_READAHEAD_DEPTH, depth);
+    }
+    
+    public static int getIrodsInputParallelThreads(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_INPUT_PARALLEL_THREADS, DEFAULT_INPUT_PARALLEL_THREADS);
+    }
+    
+    public static void setIrodsInputParallelThreads(Configuration conf, int threads) {
+        conf.setInt(CONFIG_IRODS_INPUT_PARALLEL_THREADS, threads);
+    }
+    
+    public static int getIrodsInputParallelChunkSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_INPUT_PARALLEL_CHUNK_SIZE, DEFAULT_INPUT_PARALLEL_CHUNK_SIZE);
+    }
+    
+    public static void setIrodsInputParallelChunkSize(Configuration conf, int chunk_size) {
+        conf.setInt(CONFIG_IRODS_INPUT_PARALLEL_CHUNK_SIZE, chunk_size);
+    }
+    
+    public static long getIrodsInputParallelMaxInflight(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_INPUT_PARALLEL_MAX_INFLIGHT, DEFAULT_INPUT_PARALLEL_MAX_INFLIGHT);
+    }
+    
+    public static void setIrodsInputParallelMaxInflight(Configuration conf, long max_inflight) {
+        conf.setLong(CONFIG_IRODS_INPUT_PARALLEL_MAX_INFLIGHT, max_inflight);
+    }
+    
+    public static long getIrodsInputCacheSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_INPUT_CACHE_SIZE, DEFAULT_INPUT_CACHE_SIZE);
+    }
+    
+    public static void setIrodsInputCacheSize(Configuration conf, long cache_size) {
+        conf.setLong(CONFIG_IRODS_INPUT_CACHE_SIZE, cache_size);
+    }
+    
+    public static int getIrodsInputCacheBlockSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_INPUT_CACHE_BLOCK_SIZE, DEFAULT_INPUT_CACHE_BLOCK_SIZE);
+    }
+    
+    public static void setIrodsInputCacheBlockSize(Configuration conf, int block_size) {
+        conf.setInt(CONFIG_IRODS_INPUT_CACHE_BLOCK_SIZE, block_size);
+    }
+    
+    public static boolean getIrodsInputCacheOffHeap(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_INPUT_CACHE_OFFHEAP, false);
+    }
+    
+    public static void setIrodsInputCacheOffHeap(Configuration conf, boolean offheap) {
+        conf.setBoolean(CONFIG_IRODS_INPUT_CACHE_OFFHEAP, offheap);
+    }
+    
+    public static String getIrodsInputDiskCacheDir(Configuration conf) {
+        return conf.get(CONFIG_IRODS_INPUT_DISK_CACHE_DIR, null);
+    }
+    
+    public static void setIrodsInputDiskCacheDir(Configuration conf, String dir) {
+        conf.set(CONFIG_IRODS_INPUT_DISK_CACHE_DIR, dir);
+    }
+    
+    public static long getIrodsInputDiskCacheSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_INPUT_DISK_CACHE_SIZE, DEFAULT_INPUT_DISK_CACHE_SIZE);
+    }
+    
+    public static void setIrodsInputDiskCacheSize(Configuration conf, long cache_size) {
+        conf.setLong(CONFIG_IRODS_INPUT_DISK_CACHE_SIZE, cache_size);
+    }
+    
+    public static long getIrodsInputDiskCacheMaxObjectSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_INPUT_DISK_CACHE_MAX_OBJECT_SIZE, DEFAULT_INPUT_DISK_CACHE_MAX_OBJECT_SIZE);
+    }
+    
+    public static void setIrodsInputDiskCacheMaxObjectSize(Configuration conf, long max_object_size) {
+        conf.setLong(CONFIG_IRODS_INPUT_DISK_CACHE_MAX_OBJECT_SIZE, max_object_size);
+    }
+    
     public static int getIrodsOutputBufferSize(Configuration conf) {
         return conf.getInt(CONFIG_IRODS_OUTPUT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
     }
@@ -77,6 +297,14 @@ public class HirodsConfigUtils {
         conf.setInt(CONFIG_IRODS_OUTPUT_BUFFER_SIZE, buffer_size);
     }
     
+    public static int getIrodsOutputBufferMaxSize(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_OUTPUT_BUFFER_MAX_SIZE, DEFAULT_BUFFER_MAX_SIZE);
+    }
+    
+    public static void setIrodsOutputBufferMaxSize(Configuration conf, int max_size) {
+        conf.setInt(CONFIG_IRODS_OUTPUT_BUFFER_MAX_SIZE, max_size);
+    }
+    
     public static String getIrodsOutputBufferedPath(Configuration conf) {
         return conf.get(CONFIG_IRODS_OUTPUT_BUFFERED_PATH, DEFAULT_OUTPUT_BUFFERED_PATH);
     }
@@ -84,4 +312,218 @@ public class HirodsConfigUtils {
     public static void setIrodsOutputBufferedPath(Configuration conf, String path) {
         conf.set(CONFIG_IRODS_OUTPUT_BUFFERED_PATH, path);
     }
+    
+    public static boolean getIrodsOutputDirect(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_OUTPUT_DIRECT, false);
+    }
+    
+    public static void setIrodsOutputDirect(Configuration conf, boolean direct) {
+        conf.setBoolean(CONFIG_IRODS_OUTPUT_DIRECT, direct);
+    }
+    
+    /**
+     * Applies to every data object created, not only to direct output
+     */
+    public static long getIrodsOutputSegmentSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_OUTPUT_SEGMENT_SIZE, DEFAULT_OUTPUT_SEGMENT_SIZE);
+    }
+    
+    public static void setIrodsOutputSegmentSize(Configuration conf, long segment_size) {
+        conf.setLong(CONFIG_IRODS_OUTPUT_SEGMENT_SIZE, segment_size);
+    }
+    
+    /**
+     * Applies to every data object created, not only to direct output
+     */
+    public static long getIrodsOutputSegmentInterval(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_OUTPUT_SEGMENT_INTERVAL, DEFAULT_OUTPUT_SEGMENT_INTERVAL);
+    }
+    
+    public static void setIrodsOutputSegmentInterval(Configuration conf, long interval) {
+        conf.setLong(CONFIG_IRODS_OUTPUT_SEGMENT_INTERVAL, interval);
+    }
+    
+    public static int getIrodsOutputParallelThreads(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_OUTPUT_PARALLEL_THREADS, DEFAULT_OUTPUT_PARALLEL_THREADS);
+    }
+    
+    public static void setIrodsOutputParallelThreads(Configuration conf, int threads) {
+        conf.setInt(CONFIG_IRODS_OUTPUT_PARALLEL_THREADS, threads);
+    }
+    
+    public static long getIrodsOutputParallelThreshold(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_OUTPUT_PARALLEL_THRESHOLD, DEFAULT_OUTPUT_PARALLEL_THRESHOLD);
+    }
+    
+    public static void setIrodsOutputParallelThreshold(Configuration conf, long threshold) {
+        conf.setLong(CONFIG_IRODS_OUTPUT_PARALLEL_THRESHOLD, threshold);
+    }
+    
+    public static int getIrodsOutputCommitThreads(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_OUTPUT_COMMIT_THREADS, DEFAULT_OUTPUT_COMMIT_THREADS);
+    }
+    
+    public static void setIrodsOutputCommitThreads(Configuration conf, int threads) {
+        conf.setInt(CONFIG_IRODS_OUTPUT_COMMIT_THREADS, threads);
+    }
+    
+    public static long getIrodsOutputBundleThreshold(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_OUTPUT_BUNDLE_THRESHOLD, DEFAULT_OUTPUT_BUNDLE_THRESHOLD);
+    }
+    
+    public static void setIrodsOutputBundleThreshold(Configuration conf, long threshold) {
+        conf.setLong(CONFIG_IRODS_OUTPUT_BUNDLE_THRESHOLD, threshold);
+    }
+    
+    public static long getIrodsOutputBundleSize(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_OUTPUT_BUNDLE_SIZE, DEFAULT_OUTPUT_BUNDLE_SIZE);
+    }
+    
+    public static void setIrodsOutputBundleSize(Configuration conf, long size) {
+        conf.setLong(CONFIG_IRODS_OUTPUT_BUNDLE_SIZE, size);
+    }
+    
+    public static int getIrodsConnectionPoolMaxActive(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_CONNECTION_POOL_MAX_ACTIVE, DEFAULT_CONNECTION_POOL_MAX_ACTIVE);
+    }
+    
+    public static void setIrodsConnectionPoolMaxActive(Configuration conf, int max_active) {
+        conf.setInt(CONFIG_IRODS_CONNECTION_POOL_MAX_ACTIVE, max_active);
+    }
+    
+    public static int getIrodsConnectionPoolMaxIdle(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_CONNECTION_POOL_MAX_IDLE, DEFAULT_CONNECTION_POOL_MAX_IDLE);
+    }
+    
+    public static void setIrodsConnectionPoolMaxIdle(Configuration conf, int max_idle) {
+        conf.setInt(CONFIG_IRODS_CONNECTION_POOL_MAX_IDLE, max_idle);
+    }
+    
+    public static long getIrodsConnectionPoolIdleTimeout(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_CONNECTION_POOL_IDLE_TIMEOUT, DEFAULT_CONNECTION_POOL_IDLE_TIMEOUT);
+    }
+    
+    public static void setIrodsConnectionPoolIdleTimeout(Configuration conf, long timeout) {
+        conf.setLong(CONFIG_IRODS_CONNECTION_POOL_IDLE_TIMEOUT, timeout);
+    }
+    
+    public static long getIrodsConnectionPoolMaxLifetime(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_CONNECTION_POOL_MAX_LIFETIME, DEFAULT_CONNECTION_POOL_MAX_LIFETIME);
+    }
+    
+    public static void setIrodsConnectionPoolMaxLifetime(Configuration conf, long lifetime) {
+        conf.setLong(CONFIG_IRODS_CONNECTION_POOL_MAX_LIFETIME, lifetime);
+    }
+    
+    public static long getIrodsConnectionPoolCheckoutTimeout(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_CONNECTION_POOL_CHECKOUT_TIMEOUT, DEFAULT_CONNECTION_POOL_CHECKOUT_TIMEOUT);
+    }
+    
+    public static void setIrodsConnectionPoolCheckoutTimeout(Configuration conf, long timeout) {
+        conf.setLong(CONFIG_IRODS_CONNECTION_POOL_CHECKOUT_TIMEOUT, timeout);
+    }
+    
+    public static long getIrodsConnectionPoolValidateAfter(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_CONNECTION_POOL_VALIDATE_AFTER, DEFAULT_CONNECTION_POOL_VALIDATE_AFTER);
+    }
+    
+    public static void setIrodsConnectionPoolValidateAfter(Configuration conf, long idle) {
+        conf.setLong(CONFIG_IRODS_CONNECTION_POOL_VALIDATE_AFTER, idle);
+    }
+    
+    public static String getIrodsChecksumAlgorithm(Configuration conf) {
+        return conf.get(CONFIG_IRODS_CHECKSUM_ALGORITHM, DEFAULT_CHECKSUM_ALGORITHM);
+    }
+    
+    public static void setIrodsChecksumAlgorithm(Configuration conf, String algorithm) {
+        conf.set(CONFIG_IRODS_CHECKSUM_ALGORITHM, algorithm);
+    }
+    
+    public static boolean getIrodsInputVerifyChecksum(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_INPUT_VERIFY_CHECKSUM, false);
+    }
+    
+    public static void setIrodsInputVerifyChecksum(Configuration conf, boolean verify) {
+        conf.setBoolean(CONFIG_IRODS_INPUT_VERIFY_CHECKSUM, verify);
+    }
+    
+    public static boolean getIrodsOutputVerifyChecksum(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_OUTPUT_VERIFY_CHECKSUM, false);
+    }
+    
+    public static void setIrodsOutputVerifyChecksum(Configuration conf, boolean verify) {
+        conf.setBoolean(CONFIG_IRODS_OUTPUT_VERIFY_CHECKSUM, verify);
+    }
+    
+    public static boolean getIrodsDeleteServerSide(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_DELETE_SERVER_SIDE, true);
+    }
+    
+    public static void setIrodsDeleteServerSide(Configuration conf, boolean server_side) {
+        conf.setBoolean(CONFIG_IRODS_DELETE_SERVER_SIDE, server_side);
+    }
+    
+    public static boolean getIrodsDeleteForce(Configuration conf) {
+        return conf.getBoolean(CONFIG_IRODS_DELETE_FORCE, false);
+    }
+    
+    public static void setIrodsDeleteForce(Configuration conf, boolean force) {
+        conf.setBoolean(CONFIG_IRODS_DELETE_FORCE, force);
+    }
+    
+    public static int getIrodsDeleteThreads(Configuration conf) {
+        return conf.getInt(CONFIG_IRODS_DELETE_THREADS, DEFAULT_DELETE_THREADS);
+    }
+    
+    public static void setIrodsDeleteThreads(Configuration conf, int threads) {
+        conf.setInt(CONFIG_IRODS_DELETE_THREADS, threads);
+    }
+    
+    public static long getIrodsMetricsLogInterval(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_METRICS_LOG_INTERVAL, DEFAULT_METRICS_LOG_INTERVAL);
+    }
+    
+    public static void setIrodsMetricsLogInterval(Configuration conf, long interval) {
+        conf.setLong(CONFIG_IRODS_METRICS_LOG_INTERVAL, interval);
+    }
+    
+    public static String getIrodsFakeRoot(Configuration conf) {
+        return conf.get(CONFIG_IRODS_FAKE_ROOT, conf.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir")) + "/irods-fake");
+    }
+    
+    public static void setIrodsFakeRoot(Configuration conf, String root) {
+        conf.set(CONFIG_IRODS_FAKE_ROOT, root);
+    }
+    
+    public static long getIrodsFakeLatency(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_FAKE_LATENCY, DEFAULT_FAKE_LATENCY);
+    }
+    
+    public static void setIrodsFakeLatency(Configuration conf, long latency) {
+        conf.setLong(CONFIG_IRODS_FAKE_LATENCY, latency);
+    }
+    
+    public static long getIrodsFakeBandwidth(Configuration conf) {
+        return conf.getLong(CONFIG_IRODS_FAKE_BANDWIDTH, DEFAULT_FAKE_BANDWIDTH);
+    }
+    
+    public static void setIrodsFakeBandwidth(Configuration conf, long bandwidth) {
+        conf.setLong(CONFIG_IRODS_FAKE_BANDWIDTH, bandwidth);
+    }
+    
+    public static float getIrodsFakeFailureRate(Configuration conf) {
+        return conf.getFloat(CONFIG_IRODS_FAKE_FAILURE_RATE, DEFAULT_FAKE_FAILURE_RATE);
+    }
+    
+    public static void setIrodsFakeFailureRate(Configuration conf, float failure_rate) {
+        conf.setFloat(CONFIG_IRODS_FAKE_FAILURE_RATE, failure_rate);
+    }
+    
+    public static String getIrodsFakeChecksumAlgorithm(Configuration conf) {
+        return conf.get(CONFIG_IRODS_FAKE_CHECKSUM_ALGORITHM, getIrodsChecksumAlgorithm(conf));
+    }
+    
+    public static void setIrodsFakeChecksumAlgorithm(Configuration conf, String algorithm) {
+        conf.set(CONFIG_IRODS_FAKE_CHECKSUM_ALGORITHM, algorithm);
+    }
 }
@@ -0,0 +1,312 @@
+package edu.arizona.cs.hadoop.fs.irods.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Minimal ustar writer and reader for the bundles the output committer
+ * uploads. Only regular files and directories are supported.
+ */
+public class HirodsTarUtils {
+
+    public static final int BLOCK_SIZE = 512;
+
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final long MAX_ENTRY_SIZE = 077777777777L;
+
+    /**
+     * Receives the entries of a bundle being read.
+     */
+    public static interface EntryHandler {
+
+        /**
+         * @param name relative path of the entry
+         * @param in content of the entry, valid until the method returns
+         */
+        void file(String name, long length, InputStream in) throws IOException;
+
+        void directory(String name) throws IOException;
+    }
+
+    /**
+     * @return true if the name can be stored in a ustar header
+     */
+    public static boolean fitsHeader(String name, long length) {
+        if (length > MAX_ENTRY_SIZE) {
+            return false;
+        }
+        return splitName(name) != null;
+    }
+
+    /**
+     * Bytes an entry takes in a bundle, header and padding included.
+     */
+    public static long entrySize(long length) {
+        return BLOCK_SIZE + (length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * Write a regular file entry with the given number of bytes from the
+     * input stream.
+     */
+    public static void writeFile(OutputStream out, String name, long length, long modificationTime, InputStream in) throws IOException {
+        out.write(makeHeader(name, length, modificationTime));
+
+        byte[] buffer = new byte[100 * 1024];
+        long remaining = length;
+        while (remaining > 0) {
+            int bytes_read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytes_read < 0) {
+                throw new EOFException("Unexpected EOF in " + name + ", " + remaining + " bytes missing");
+            }
+            out.write(buffer, 0, bytes_read);
+            remaining -= bytes_read;
+        }
+
+        int padding = (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+        out.write(new byte[padding]);
+    }
+
+    /**
+     * Write the end of archive marker.
+     */
+    public static void writeEnd(OutputStream out) throws IOException {
+        out.write(new byte[BLOCK_SIZE * 2]);
+    }
+
+    /**
+     * Read a bundle, handing each entry to the handler.
+     */
+    public static void extract(InputStream in, EntryHandler handler) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        while (true) {
+            if (!readBlock(in, header)) {
+                // archives may end without the marker
+                return;
+            }
+            if (isZero(header)) {
+                return;
+            }
+            if (parseOctal(header, 148, 8) != checksum(header)) {
+                throw new IOException("Corrupt tar header");
+            }
+
+            String name = parseString(header, 0, NAME_LENGTH);
+            String prefix = parseString(header, 345, PREFIX_LENGTH);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+            if (name.startsWith("/") || ("/" + name + "/").contains("/../")) {
+                throw new IOException("Illegal entry name in tar : " + name);
+            }
+            long length = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+
+            BoundedInputStream entry = new BoundedInputStream(in, length);
+            if (type == '5') {
+                handler.directory(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+            } else if (type == '0' || type == 0) {
+                handler.file(name, length, entry);
+            }
+            entry.skipRest();
+
+            int padding = (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+            skipFully(in, padding);
+        }
+    }
+
+    private static byte[] makeHeader(String name, long length, long modificationTime) throws IOException {
+        String[] parts = splitName(name);
+        if (parts == null || length > MAX_ENTRY_SIZE) {
+            throw new IOException("Cannot store " + name + " in a tar header");
+        }
+
+        byte[] header = new byte[BLOCK_SIZE];
+        putString(header, 0, NAME_LENGTH, parts[1]);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, length);
+        putOctal(header, 136, 12, modificationTime / 1000);
+        header[156] = '0';
+        putString(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+        putString(header, 345, PREFIX_LENGTH, parts[0]);
+
+        putOctal(header, 148, 7, checksum(header));
+        header[155] = ' ';
+        return header;
+    }
+
+    /*
+     * split a name into the prefix and name fields of a header, null if it
+     * does not fit
+     */
+    private static String[] splitName(String name) {
+        if (utf8Length(name) <= NAME_LENGTH) {
+            return new String[]{"", name};
+        }
+        int idx = name.lastIndexOf('/');
+        while (idx > 0) {
+            String prefix = name.substring(0, idx);
+            String rest = name.substring(idx + 1);
+            if (utf8Length(rest) > NAME_LENGTH) {
+                return null;
+            }
+            if (utf8Length(prefix) <= PREFIX_LENGTH) {
+                return new String[]{prefix, rest};
+            }
+            idx = name.lastIndexOf('/', idx - 1);
+        }
+        return null;
+    }
+
+    private static int utf8Length(String s) {
+        try {
+            return s.getBytes("UTF-8").length;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static long checksum(byte[] header) {
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            // the checksum field counts as spaces
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+        }
+        return sum;
+    }
+
+    private static void putString(byte[] header, int off, int len, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        System.arraycopy(bytes, 0, header, off, Math.min(bytes.length, len));
+    }
+
+    private static void putOctal(byte[] header, int off, int len, long value) {
+        // zero padded digits followed by a NUL
+        String octal = Long.toOctalString(value);
+        int digits = len - 1;
+        for (int i = 0; i < digits; i++) {
+            int idx = octal.length() - digits + i;
+            header[off + i] = (byte) (idx < 0 ? '0' : octal.charAt(idx));
+        }
+        header[off + digits] = 0;
+    }
+
+    private static String parseString(byte[] header, int off, int len) throws IOException {
+        int end = off;
+        while (end < off + len && header[end] != 0) {
+            end++;
+        }
+        return new String(header, off, end - off, "UTF-8");
+    }
+
+    private static long parseOctal(byte[] header, int off, int len) {
+        long value = 0;
+        for (int i = off; i < off + len; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int off = 0;
+        while (off < block.length) {
+            int bytes_read = in.read(block, off, block.length - off);
+            if (bytes_read < 0) {
+                if (off == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar header");
+            }
+            off += bytes_read;
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /*
+     * content of one entry, leaves the underlying stream open
+     */
+    private static class BoundedInputStream extends InputStream {
+
+        private InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = this.in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            this.remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int bytes_read = this.in.read(bytes, off, (int) Math.min(len, this.remaining));
+            if (bytes_read < 0) {
+                // a short entry would pass for a complete one
+                throw new EOFException("Truncated tar entry");
+            }
+            this.remaining -= bytes_read;
+            return bytes_read;
+        }
+
+        @Override
+        public void close() {
+            // the bundle stream stays open
+        }
+
+        void skipRest() throws IOException {
+            skipFully(this.in, this.remaining);
+            this.remaining = 0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HirodsBlockCacheTest {
+
+    private static byte[] block(int value, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (value + i);
+        }
+        return data;
+    }
+
+    private void testLeastRecentlyUsedEvicted(boolean offHeap) {
+        HirodsBlockCache cache = new HirodsBlockCache(4, 8, offHeap);
+        byte[] out = new byte[4];
+        cache.put("h:1247/zone/a", 1, 0, block(0, 4), 4);
+        cache.put("h:1247/zone/a", 1, 4, block(4, 4), 4);
+        assertEquals(4, cache.read("h:1247/zone/a", 1, 0, out, 0, 4));
+        cache.put("h:1247/zone/a", 1, 8, block(8, 2), 2);
+
+        assertEquals(6, cache.getUsed());
+        assertEquals(-1, cache.read("h:1247/zone/a", 1, 4, out, 0, 4));
+        assertEquals(1, cache.read("h:1247/zone/a", 1, 9, out, 1, 3));
+        assertEquals(9, out[1]);
+        assertEquals(3, cache.read("h:1247/zone/a", 1, 1, out, 0, 4));
+        assertArrayEquals(new byte[]{1, 2, 3, 3}, out);
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        testLeastRecentlyUsedEvicted(false);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedOffHeap() {
+        testLeastRecentlyUsedEvicted(true);
+    }
+
+    @Test
+    public void testKeys() {
+        HirodsBlockCache cache = new HirodsBlockCache(4, 100, false);
+        byte[] out = new byte[4];
+        String object = HirodsBlockCache.makeObjectKey("h1", 1247, "/zone/a");
+        cache.put(object, 1, 0, block(0, 4), 4);
+
+        assertEquals(4, cache.read(object, 1, 0, out, 0, 4));
+        // a modified data object does not hit old blocks
+        assertEquals(-1, cache.read(object, 2, 0, out, 0, 4));
+        assertEquals(-1, cache.read(HirodsBlockCache.makeObjectKey("h2", 1247, "/zone/a"), 1, 0, out, 0, 4));
+        assertEquals(-1, cache.read(HirodsBlockCache.makeObjectKey("h1", 1248, "/zone/a"), 1, 0, out, 0, 4));
+    }
+
+    @Test
+    public void testReplaceAndOversized() {
+        HirodsBlockCache cache = new HirodsBlockCache(4, 4, false);
+        cache.put("a", 1, 0, block(0, 4), 4);
+        cache.put("a", 1, 0, block(0, 3), 3);
+        assertEquals(3, cache.getUsed());
+
+        cache.put("a", 1, 4, block(0, 8), 5);
+        assertEquals(3, cache.getUsed());
+        cache.clear();
+        assertEquals(0, cache.getUsed());
+    }
+}
@@ -0,0 +1,131 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class HirodsBufferedInputStreamTest {
+
+    private static final String PATH = "/zone/data";
+    private static final int LENGTH = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private HirodsBackend backend;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        this.conf = new Configuration();
+        HirodsConfigUtils.setIrodsFakeRoot(this.conf, this.folder.getRoot().getPath());
+        this.backend = new HirodsFakeBackend(this.conf, "h", 1247, "zone", new HirodsMetrics("h", 0));
+
+        this.data = new byte[LENGTH];
+        new Random(1).nextBytes(this.data);
+        HirodsConnection connection = this.backend.connect();
+        try {
+            connection.mkdirs("/zone");
+            HirodsConnection.Handle handle = connection.create(PATH, true);
+            handle.write(this.data, 0, this.data.length);
+            handle.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.backend.close();
+    }
+
+    private HirodsBufferedInputStream open(int bufferSize, int maxBufferSize) throws IOException {
+        HirodsInputStream is = new HirodsInputStream(this.conf, this.backend, this.backend.connect(), PATH, LENGTH, new FileSystem.Statistics("irodsfake"));
+        return new HirodsBufferedInputStream(is, bufferSize, maxBufferSize, 0);
+    }
+
+    /*
+     * read to the end in small requests, checking the content
+     */
+    private void readSequential(HirodsBufferedInputStream in, long from) throws IOException {
+        byte[] buffer = new byte[100];
+        long pos = from;
+        int bytes_read;
+        while ((bytes_read = in.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < bytes_read; i++) {
+                assertEquals("at " + pos, this.data[(int) pos], buffer[i]);
+                pos++;
+            }
+        }
+        assertEquals(LENGTH, pos);
+    }
+
+    @Test
+    public void testFixedSize() throws IOException {
+        HirodsBufferedInputStream in = open(1024, 0);
+        try {
+            readSequential(in, 0);
+            // one more refill finds the end
+            assertEquals(LENGTH / 1024 + 1, in.getRefillCount());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testGrowsWhileSequential() throws IOException {
+        HirodsBufferedInputStream in = open(1024, 8192);
+        try {
+            readSequential(in, 0);
+            // 1k, 2k, 4k then 8k buffers
+            assertEquals(3 + (LENGTH - 7 * 1024 + 8191) / 8192 + 1, in.getRefillCount());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testShrinksOnSeek() throws IOException {
+        HirodsBufferedInputStream in = open(1024, 8192);
+        try {
+            byte[] buffer = new byte[100];
+            for (int i = 0; i < 50; i++) {
+                in.read(buffer, 0, buffer.length);
+            }
+            long refills = in.getRefillCount();
+
+            // the first refill after a seek is back at the initial size
+            in.seek(40000);
+            assertEquals(this.data[40000], (byte) in.read());
+            in.seek(40000 + 1024);
+            assertEquals(refills + 1, in.getRefillCount());
+            assertEquals(this.data[40000 + 1024], (byte) in.read());
+            assertEquals(refills + 2, in.getRefillCount());
+
+            in.seek(100);
+            readSequential(in, 100);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testBoundedByObjectSize() throws IOException {
+        HirodsBufferedInputStream in = open(1024, 1024 * 1024);
+        try {
+            readSequential(in, 0);
+            assertTrue(in.getRefillCount() <= 8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class HirodsDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HirodsDiskCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        this.cache = new HirodsDiskCache(this.folder.newFolder("cache"), 12, 8);
+    }
+
+    private static InputStream content(int length) {
+        return new ByteArrayInputStream(new byte[length]);
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        assertNull(this.cache.lookup("h:1247/zone/a", 6, 100));
+        File local = this.cache.store("h:1247/zone/a", 6, 100, content(6));
+        assertEquals(6, local.length());
+        assertEquals(local, this.cache.lookup("h:1247/zone/a", 6, 100));
+
+        // modified since it was cached
+        assertNull(this.cache.lookup("h:1247/zone/a", 6, 200));
+        assertFalse(local.exists());
+        assertNull(this.cache.lookup("h:1247/zone/a", 6, 100));
+    }
+
+    @Test(expected = IOException.class)
+    public void testShortDownload() throws IOException {
+        this.cache.store("h:1247/zone/a", 6, 100, content(5));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        File a = this.cache.store("a", 6, 1, content(6));
+        File b = this.cache.store("b", 6, 1, content(6));
+        long now = System.currentTimeMillis();
+        a.setLastModified(now - 20000);
+        b.setLastModified(now - 10000);
+        // use refreshes the access time
+        assertNotNull(this.cache.lookup("a", 6, 1));
+
+        this.cache.store("c", 6, 1, content(6));
+        assertNotNull(this.cache.lookup("a", 6, 1));
+        assertNull(this.cache.lookup("b", 6, 1));
+        assertNotNull(this.cache.lookup("c", 6, 1));
+    }
+
+    @Test
+    public void testEvictionKeepsLockFiles() throws IOException {
+        HirodsDiskCache.Source source = new HirodsDiskCache.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return content(6);
+            }
+        };
+        File a = this.cache.get("a", 6, 1, source);
+        a.setLastModified(System.currentTimeMillis() - 10000);
+        this.cache.get("b", 6, 1, source);
+        this.cache.get("c", 6, 1, source);
+        assertFalse(a.exists());
+
+        int locks = 0;
+        for (File file : a.getParentFile().listFiles()) {
+            if (file.getName().endsWith(".lock")) {
+                locks++;
+            }
+        }
+        assertEquals(3, locks);
+    }
+
+    @Test
+    public void testCacheable() {
+        assertTrue(this.cache.isCacheable(8));
+        assertFalse(this.cache.isCacheable(9));
+    }
+
+    @Test
+    public void testSingleDownload() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        final HirodsDiskCache.Source source = new HirodsDiskCache.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                opened.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return content(8);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<File>> gets = new ArrayList<Future<File>>();
+            for (int i = 0; i < 4; i++) {
+                gets.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return cache.get("h:1247/zone/a", 8, 100, source);
+                    }
+                }));
+            }
+            for (Future<File> get : gets) {
+                assertEquals(8, get.get().length());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, opened.get());
+    }
+}
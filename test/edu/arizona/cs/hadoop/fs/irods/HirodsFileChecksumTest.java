@@ -0,0 +1,72 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HirodsFileChecksumTest {
+
+    private static byte[] digest(String algorithm, String content) throws IOException {
+        MessageDigest digest = HirodsFileChecksum.newDigest(algorithm);
+        return digest.digest(content.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testParseSha256() throws IOException {
+        // sha256 of "abc" as iRODS registers it
+        HirodsFileChecksum checksum = HirodsFileChecksum.parse("sha2:ungWv48Bz+pBQUDeXa4iI7ADYaOWF3qctBD/YfIAFa0=");
+        assertEquals(HirodsFileChecksum.SHA256, checksum.getAlgorithmName());
+        assertEquals(32, checksum.getLength());
+        assertTrue(checksum.matches(HirodsFileChecksum.SHA256, digest(HirodsFileChecksum.SHA256, "abc")));
+        assertFalse(checksum.matches(HirodsFileChecksum.SHA256, digest(HirodsFileChecksum.SHA256, "abd")));
+    }
+
+    @Test
+    public void testParseMd5() throws IOException {
+        HirodsFileChecksum checksum = HirodsFileChecksum.parse(" 900150983cd24fb0d6963f7d28e17f72 ");
+        assertEquals(HirodsFileChecksum.MD5, checksum.getAlgorithmName());
+        assertTrue(checksum.matches(HirodsFileChecksum.MD5, digest(HirodsFileChecksum.MD5, "abc")));
+        assertFalse(checksum.matches(HirodsFileChecksum.SHA256, checksum.getBytes()));
+    }
+
+    @Test
+    public void testBase64Padding() {
+        // every padding length decodes back to the same bytes
+        for (int length = 0; length < 8; length++) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (0xf0 + i);
+            }
+            String value = new HirodsFileChecksum(HirodsFileChecksum.SHA256, bytes).toCatalogString();
+            assertEquals(0, (value.length() - "sha2:".length()) % 4);
+            assertArrayEquals(value, bytes, HirodsFileChecksum.parse(value).getBytes());
+        }
+        assertEquals("sha2:+/8=", new HirodsFileChecksum(HirodsFileChecksum.SHA256, new byte[]{(byte) 0xfb, (byte) 0xff}).toCatalogString());
+    }
+
+    @Test
+    public void testUnknown() {
+        assertNull(HirodsFileChecksum.parse(null));
+        assertNull(HirodsFileChecksum.parse(""));
+        assertNull(HirodsFileChecksum.parse("sha2:not base64!"));
+        assertNull(HirodsFileChecksum.parse("0123"));
+        assertNull(HirodsFileChecksum.parse("z00150983cd24fb0d6963f7d28e17f72"));
+    }
+
+    @Test
+    public void testWritable() throws IOException {
+        HirodsFileChecksum checksum = HirodsFileChecksum.parse("900150983cd24fb0d6963f7d28e17f72");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        checksum.write(new DataOutputStream(out));
+
+        HirodsFileChecksum copy = new HirodsFileChecksum();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(checksum, copy);
+        assertEquals(checksum.toCatalogString(), copy.toCatalogString());
+    }
+}
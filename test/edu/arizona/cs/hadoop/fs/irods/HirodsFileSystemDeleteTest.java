@@ -0,0 +1,143 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Deletes trees server side, serially and in parallel against the stand-in
+ * grid.
+ */
+public class HirodsFileSystemDeleteTest {
+
+    private static final Path TREE = new Path("/zone/home/tree");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private HirodsFileSystem fs;
+    private File grid;
+
+    @Before
+    public void setUp() throws IOException {
+        this.conf = new Configuration();
+        this.conf.set("fs.irodsfake.impl", HirodsFakeFileSystem.class.getName());
+        this.conf.setBoolean("fs.irodsfake.impl.disable.cache", true);
+        this.grid = this.folder.newFolder("grid");
+        HirodsConfigUtils.setIrodsFakeRoot(this.conf, this.grid.getPath());
+        HirodsConfigUtils.setIrodsListPageSize(this.conf, 50);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.fs != null) {
+            this.fs.close();
+        }
+    }
+
+    private void open() throws IOException {
+        this.fs = (HirodsFileSystem) FileSystem.get(URI.create("irodsfake://h:1247/zone/"), this.conf);
+    }
+
+    private void createTree(int files) throws IOException {
+        for (int i = 0; i < files; i++) {
+            FSDataOutputStream out = this.fs.create(new Path(TREE, "a" + (i % 7) + "/b" + (i % 3) + "/f" + i));
+            out.write(i);
+            out.close();
+        }
+        this.fs.mkdirs(new Path(TREE, "empty/empty"));
+    }
+
+    private void checkDeleted() throws IOException {
+        assertFalse(this.fs.exists(TREE));
+        assertFalse(new File(this.grid, "zone/home/tree").exists());
+        assertTrue(this.fs.exists(TREE.getParent()));
+    }
+
+    @Test
+    public void testServerSide() throws IOException {
+        HirodsConfigUtils.setIrodsDeleteServerSide(this.conf, true);
+        open();
+        createTree(100);
+        assertTrue(this.fs.delete(TREE, true));
+        checkDeleted();
+    }
+
+    @Test
+    public void testSerial() throws IOException {
+        HirodsConfigUtils.setIrodsDeleteServerSide(this.conf, false);
+        HirodsConfigUtils.setIrodsDeleteThreads(this.conf, 1);
+        open();
+        createTree(100);
+        assertTrue(this.fs.delete(TREE, true));
+        checkDeleted();
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        HirodsConfigUtils.setIrodsDeleteServerSide(this.conf, false);
+        HirodsConfigUtils.setIrodsDeleteThreads(this.conf, 4);
+        open();
+        createTree(1200);
+
+        final long[] deleted = new long[2];
+        assertTrue(this.fs.deleteTree(TREE, new HirodsFileSystem.DeleteProgress() {
+            @Override
+            public void deleted(long objects, long collections) {
+                deleted[0] = objects;
+                deleted[1] = collections;
+            }
+        }));
+        checkDeleted();
+        assertEquals(1200, deleted[0]);
+        // the tree, a0-a6 with b0-b2 each, empty and empty/empty
+        assertEquals(1 + 7 + 21 + 2, deleted[1]);
+    }
+
+    @Test
+    public void testParallelWithinPool() throws IOException {
+        HirodsConfigUtils.setIrodsDeleteServerSide(this.conf, false);
+        HirodsConfigUtils.setIrodsDeleteThreads(this.conf, 8);
+        HirodsConfigUtils.setIrodsConnectionPoolMaxActive(this.conf, 2);
+        HirodsConfigUtils.setIrodsConnectionPoolCheckoutTimeout(this.conf, 2000);
+        open();
+        createTree(1200);
+        // the listing shares the caller's connection, leaving one for a
+        // single worker
+        final long[] deleted = new long[1];
+        assertTrue(this.fs.deleteTree(TREE, new HirodsFileSystem.DeleteProgress() {
+            @Override
+            public void deleted(long objects, long collections) {
+                deleted[0] = objects;
+            }
+        }));
+        checkDeleted();
+        assertEquals(1200, deleted[0]);
+    }
+
+    @Test
+    public void testNonRecursive() throws IOException {
+        HirodsConfigUtils.setIrodsDeleteServerSide(this.conf, false);
+        open();
+        createTree(10);
+        assertFalse(this.fs.delete(TREE, false));
+        assertTrue(this.fs.exists(TREE));
+
+        Path file = new Path(TREE, "a1/b1/f1");
+        assertTrue(this.fs.delete(file, false));
+        assertFalse(this.fs.exists(file));
+        assertFalse(this.fs.delete(file, false));
+    }
+}
@@ -0,0 +1,72 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Opens data objects changed behind the metadata cache.
+ */
+public class HirodsFileSystemOpenTest {
+
+    private static final Path FILE = new Path("/zone/home/data");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HirodsFileSystem fs;
+    private File grid;
+
+    @Before
+    public void setUp() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("fs.irodsfake.impl", HirodsFakeFileSystem.class.getName());
+        conf.setBoolean("fs.irodsfake.impl.disable.cache", true);
+        this.grid = this.folder.newFolder("grid");
+        HirodsConfigUtils.setIrodsFakeRoot(conf, this.grid.getPath());
+        this.fs = (HirodsFileSystem) FileSystem.get(URI.create("irodsfake://h:1247/zone/"), conf);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.fs.close();
+    }
+
+    @Test
+    public void testOpenSeesObjectRewrittenElsewhere() throws IOException {
+        FSDataOutputStream out = this.fs.create(FILE);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        assertEquals(3, this.fs.getFileStatus(FILE).getLen());
+
+        // another client appends behind the cached status
+        FileOutputStream other = new FileOutputStream(new File(this.grid, FILE.toUri().getPath()), true);
+        other.write(new byte[]{4, 5});
+        other.close();
+
+        byte[] data = new byte[5];
+        FSDataInputStream in = this.fs.open(FILE);
+        try {
+            IOUtils.readFully(in, data, 0, data.length);
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, data);
+        assertEquals(5, this.fs.getFileStatus(FILE).getLen());
+    }
+}
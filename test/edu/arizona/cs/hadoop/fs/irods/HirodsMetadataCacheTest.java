@@ -0,0 +1,77 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HirodsMetadataCacheTest {
+
+    private static FileStatus status(String path) {
+        return new FileStatus(1, false, 1, 1, 0, new Path(path));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        HirodsMetadataCache cache = new HirodsMetadataCache(2, 60000, 60000);
+        cache.put("/zone/a", status("/zone/a"));
+        cache.put("/zone/b", status("/zone/b"));
+        assertNotNull(cache.get("/zone/a"));
+        cache.put("/zone/c", status("/zone/c"));
+
+        assertNotNull(cache.get("/zone/a"));
+        assertNull(cache.get("/zone/b"));
+        assertNotNull(cache.get("/zone/c"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        HirodsMetadataCache cache = new HirodsMetadataCache(10, 50, 500);
+        cache.put("/zone/a", status("/zone/a"));
+        cache.putNegative("/zone/missing");
+        assertTrue(cache.get("/zone/a").exists());
+        assertFalse(cache.get("/zone/missing").exists());
+
+        Thread.sleep(100);
+        assertNull(cache.get("/zone/a"));
+        assertNotNull(cache.get("/zone/missing"));
+    }
+
+    @Test
+    public void testDisabled() {
+        HirodsMetadataCache cache = new HirodsMetadataCache(10, 0, 1000);
+        assertFalse(cache.isEnabled());
+        cache.put("/zone/a", status("/zone/a"));
+        cache.putNegative("/zone/b");
+        assertNull(cache.get("/zone/a"));
+        assertNull(cache.get("/zone/b"));
+
+        cache = new HirodsMetadataCache(10, 1000, 0);
+        cache.putNegative("/zone/b");
+        assertNull(cache.get("/zone/b"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        HirodsMetadataCache cache = new HirodsMetadataCache(10, 60000, 60000);
+        String[] paths = {"/zone", "/zone/a", "/zone/a/b", "/zone/a/b/c", "/zone/ab", "/zone/x"};
+        for (String path : paths) {
+            cache.put(path, status(path));
+        }
+
+        cache.invalidateWithAncestors("/zone/a/b");
+        assertNull(cache.get("/zone"));
+        assertNull(cache.get("/zone/a"));
+        assertNull(cache.get("/zone/a/b"));
+        assertNotNull(cache.get("/zone/a/b/c"));
+
+        cache.put("/zone/a", status("/zone/a"));
+        cache.invalidateTree("/zone/a");
+        assertNull(cache.get("/zone/a"));
+        assertNull(cache.get("/zone/a/b/c"));
+        assertNotNull(cache.get("/zone/ab"));
+        assertNotNull(cache.get("/zone/x"));
+    }
+}
@@ -0,0 +1,84 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class HirodsParallelRangeReaderTest {
+
+    private static final String PATH = "/zone/data";
+    private static final int LENGTH = 64 * 1024;
+    private static final int CHUNK = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private HirodsFakeBackend backend;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        this.conf = new Configuration();
+        HirodsConfigUtils.setIrodsFakeRoot(this.conf, this.folder.getRoot().getPath());
+        HirodsConfigUtils.setIrodsInputParallelThreads(this.conf, 4);
+        HirodsConfigUtils.setIrodsInputParallelChunkSize(this.conf, CHUNK);
+        HirodsConfigUtils.setIrodsInputParallelMaxInflight(this.conf, 4 * CHUNK);
+        this.backend = new HirodsFakeBackend(this.conf, "h", 1247, "zone", new HirodsMetrics("h", 0));
+
+        this.data = new byte[LENGTH];
+        new Random(1).nextBytes(this.data);
+        HirodsConnection connection = this.backend.connect();
+        try {
+            connection.mkdirs("/zone");
+            HirodsConnection.Handle handle = connection.create(PATH, true);
+            handle.write(this.data, 0, this.data.length);
+            handle.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.backend.close();
+    }
+
+    private void readFrom(HirodsParallelRangeReader reader, long from, long to) throws IOException {
+        byte[] buffer = new byte[1000];
+        long pos = from;
+        while (pos < to) {
+            int ret = reader.read(pos, buffer, 0, (int) Math.min(buffer.length, to - pos));
+            assertTrue(ret > 0);
+            for (int i = 0; i < ret; i++) {
+                assertEquals(this.data[(int) pos + i], buffer[i]);
+            }
+            pos += ret;
+        }
+    }
+
+    @Test
+    public void testSeeksCancelWithoutLosingConnections() throws Exception {
+        HirodsParallelRangeReader reader = new HirodsParallelRangeReader(this.conf, this.backend, PATH, LENGTH);
+        readFrom(reader, 0, 3 * CHUNK);
+        // out of order reads restart the chunks in flight
+        readFrom(reader, LENGTH - CHUNK, LENGTH);
+        readFrom(reader, CHUNK, LENGTH);
+        assertEquals(-1, reader.read(LENGTH, new byte[1], 0, 1));
+        reader.close();
+
+        // cancelled fetches finish on their own and give connections back
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.backend.getPool().getNumActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.backend.getPool().getNumActive());
+    }
+}
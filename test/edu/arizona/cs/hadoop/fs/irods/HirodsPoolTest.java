@@ -0,0 +1,88 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HirodsPoolTest {
+
+    private static class TestPool extends HirodsPool<Integer> {
+
+        private AtomicInteger next = new AtomicInteger();
+        private Set<Integer> dead = new HashSet<Integer>();
+        private Set<Integer> disconnected = new HashSet<Integer>();
+        private int validations = 0;
+
+        TestPool(Configuration conf) {
+            super(conf, null);
+        }
+
+        Integer checkout() throws IOException {
+            return checkout("key", new Connector<Integer>() {
+                @Override
+                public Integer connect() {
+                    return next.incrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        protected Object identify(Integer connection) {
+            return connection;
+        }
+
+        @Override
+        protected boolean isConnected(Integer connection) {
+            return !this.disconnected.contains(connection);
+        }
+
+        @Override
+        protected boolean validate(Integer connection) {
+            this.validations++;
+            return !this.dead.contains(connection);
+        }
+
+        @Override
+        protected void disconnect(Integer connection) {
+            this.disconnected.add(connection);
+        }
+    }
+
+    @Test
+    public void testIdleConnectionValidated() throws IOException {
+        Configuration conf = new Configuration();
+        HirodsConfigUtils.setIrodsConnectionPoolValidateAfter(conf, 0);
+        TestPool pool = new TestPool(conf);
+
+        Integer first = pool.checkout();
+        pool.checkin("key", first);
+        assertEquals(first, pool.checkout());
+        assertEquals(1, pool.validations);
+
+        // the server dropped it while idle
+        pool.checkin("key", first);
+        pool.dead.add(first);
+        Integer second = pool.checkout();
+        assertFalse(first.equals(second));
+        assertTrue(pool.disconnected.contains(first));
+        assertEquals(1, pool.getNumActive());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testRecentlyUsedConnectionNotValidated() throws IOException {
+        Configuration conf = new Configuration();
+        HirodsConfigUtils.setIrodsConnectionPoolValidateAfter(conf, 60000);
+        TestPool pool = new TestPool(conf);
+
+        Integer first = pool.checkout();
+        pool.checkin("key", first);
+        assertEquals(first, pool.checkout());
+        assertEquals(0, pool.validations);
+    }
+}
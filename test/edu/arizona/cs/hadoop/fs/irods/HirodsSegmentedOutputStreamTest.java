@@ -0,0 +1,116 @@
+package edu.arizona.cs.hadoop.fs.irods;
+
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Writes data objects in segments against the stand-in grid.
+ */
+public class HirodsSegmentedOutputStreamTest {
+
+    private static final Path FILE = new Path("/zone/home/out/data");
+
+    /**
+     * The fake file system, keeping its backend for the test to look at.
+     */
+    public static class TestFileSystem extends HirodsFakeFileSystem {
+
+        HirodsFakeBackend backend;
+
+        @Override
+        protected HirodsBackend createBackend(Configuration conf, String host, int port, String zone, String user, String password, HirodsMetrics metrics) throws IOException {
+            this.backend = (HirodsFakeBackend) super.createBackend(conf, host, port, zone, user, password, metrics);
+            return this.backend;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private TestFileSystem fs;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        this.conf = new Configuration();
+        this.conf.set("fs.irodsfake.impl", TestFileSystem.class.getName());
+        this.conf.setBoolean("fs.irodsfake.impl.disable.cache", true);
+        HirodsConfigUtils.setIrodsFakeRoot(this.conf, this.folder.newFolder("grid").getPath());
+        this.data = new byte[10000];
+        new Random(1).nextBytes(this.data);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.fs != null) {
+            this.fs.close();
+        }
+    }
+
+    private void open() throws IOException {
+        this.fs = (TestFileSystem) FileSystem.get(URI.create("irodsfake://h:1247/zone/"), this.conf);
+    }
+
+    private void assertContent() throws IOException {
+        byte[] read = new byte[this.data.length];
+        FSDataInputStream in = this.fs.open(FILE);
+        try {
+            IOUtils.readFully(in, read, 0, read.length);
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+        assertArrayEquals(this.data, read);
+    }
+
+    @Test
+    public void testSegmentsBySize() throws IOException {
+        HirodsConfigUtils.setIrodsOutputSegmentSize(this.conf, 1000);
+        open();
+
+        FSDataOutputStream out = this.fs.create(FILE);
+        for (int off = 0; off < this.data.length; off += 300) {
+            out.write(this.data, off, Math.min(300, this.data.length - off));
+            // other calls of the writing thread between segments
+            this.fs.getFileStatus(FILE.getParent());
+        }
+        out.close();
+
+        assertEquals(0, this.fs.backend.getPool().getNumActive());
+        assertContent();
+    }
+
+    @Test
+    public void testIdleSegmentEndedByTimer() throws Exception {
+        HirodsConfigUtils.setIrodsOutputSegmentInterval(this.conf, 50);
+        open();
+
+        FSDataOutputStream out = this.fs.create(FILE);
+        out.write(this.data, 0, 4000);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.fs.backend.getPool().getNumActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the segment gave its connection back while the stream stays open
+        assertEquals(0, this.fs.backend.getPool().getNumActive());
+
+        out.write(this.data, 4000, this.data.length - 4000);
+        out.close();
+        assertContent();
+    }
+}
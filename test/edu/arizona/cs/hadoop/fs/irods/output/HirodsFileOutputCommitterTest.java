@@ -0,0 +1,179 @@
+package edu.arizona.cs.hadoop.fs.irods.output;
+
+import edu.arizona.cs.hadoop.fs.irods.HirodsFakeFileSystem;
+import edu.arizona.cs.hadoop.fs.irods.HirodsFileChecksum;
+import edu.arizona.cs.hadoop.fs.irods.util.HirodsConfigUtils;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Commits task outputs in every mode against the stand-in grid.
+ */
+public class HirodsFileOutputCommitterTest {
+
+    private static final URI GRID = URI.create("irodsfake://h:1247/zone/");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path output;
+    private Map<String, byte[]> files = new HashMap<String, byte[]>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.conf = new Configuration();
+        this.conf.set("fs.irodsfake.impl", HirodsFakeFileSystem.class.getName());
+        this.conf.setBoolean("fs.irodsfake.impl.disable.cache", true);
+        HirodsConfigUtils.setIrodsFakeRoot(this.conf, this.folder.newFolder("grid").getPath());
+        HirodsConfigUtils.setIrodsConnectionPoolCheckoutTimeout(this.conf, 10000);
+        this.output = new Path("irodsfake://h:1247/zone/home/output");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.fs != null) {
+            this.fs.close();
+        }
+    }
+
+    /*
+     * write the outputs of one task, large and small files, some in a sub
+     * directory, then commit them
+     */
+    private void commit() throws IOException {
+        this.fs = FileSystem.get(GRID, this.conf);
+        Path staging = new Path(this.folder.newFolder("staging").toURI());
+        TaskAttemptContext context = new TaskAttemptContext(this.conf, new TaskAttemptID("job", 1, true, 0, 0));
+        HirodsFileOutputCommitter committer = new HirodsFileOutputCommitter(this.output, staging, context);
+        committer.setupJob(context);
+
+        FileSystem workfs = committer.getWorkPath().getFileSystem(this.conf);
+        Random random = new Random(7);
+        for (int i = 0; i < 6; i++) {
+            byte[] data = new byte[i % 2 == 0 ? 20000 + i : 300 + i];
+            random.nextBytes(data);
+            String name = (i < 3 ? "" : "sub/") + "part-r-0000" + i;
+            this.files.put(name, data);
+            FSDataOutputStream out = workfs.create(new Path(committer.getWorkPath(), name));
+            out.write(data);
+            out.close();
+        }
+
+        committer.commitTask(context);
+        committer.commitJob(context);
+        assertFalse(workfs.exists(committer.getWorkPath()));
+    }
+
+    private void checkOutput() throws IOException {
+        for (Map.Entry<String, byte[]> file : this.files.entrySet()) {
+            FSDataInputStream in = this.fs.open(new Path(this.output, file.getKey()));
+            try {
+                byte[] content = new byte[file.getValue().length];
+                in.readFully(content);
+                assertTrue(file.getKey(), Arrays.equals(file.getValue(), content));
+                assertEquals(-1, in.read());
+            } finally {
+                in.close();
+            }
+        }
+        assertEquals(4, this.fs.listStatus(this.output).length);
+        assertEquals(3, this.fs.listStatus(new Path(this.output, "sub")).length);
+        assertFalse(this.fs.exists(new Path(this.output, "_temporary")));
+    }
+
+    @Test
+    public void testSerial() throws IOException {
+        HirodsConfigUtils.setIrodsOutputCommitThreads(this.conf, 1);
+        commit();
+        checkOutput();
+    }
+
+    @Test
+    public void testParallel() throws IOException {
+        HirodsConfigUtils.setIrodsOutputCommitThreads(this.conf, 3);
+        HirodsConfigUtils.setIrodsOutputVerifyChecksum(this.conf, true);
+        commit();
+        checkOutput();
+    }
+
+    @Test
+    public void testRanged() throws IOException {
+        HirodsConfigUtils.setIrodsOutputCommitThreads(this.conf, 3);
+        HirodsConfigUtils.setIrodsOutputParallelThreads(this.conf, 4);
+        HirodsConfigUtils.setIrodsOutputParallelThreshold(this.conf, 1000);
+        HirodsConfigUtils.setIrodsOutputVerifyChecksum(this.conf, true);
+        // fewer connections than range writers wanted
+        HirodsConfigUtils.setIrodsConnectionPoolMaxActive(this.conf, 3);
+        commit();
+        checkOutput();
+    }
+
+    @Test
+    public void testBundled() throws IOException {
+        HirodsConfigUtils.setIrodsOutputBundleThreshold(this.conf, 5000);
+        HirodsConfigUtils.setIrodsOutputVerifyChecksum(this.conf, true);
+        commit();
+        checkOutput();
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnverifiableChecksumFailsCommit() throws IOException {
+        HirodsConfigUtils.setIrodsOutputVerifyChecksum(this.conf, true);
+        HirodsConfigUtils.setIrodsChecksumAlgorithm(this.conf, HirodsFileChecksum.SHA256);
+        // the server uses another scheme, so nothing can be compared
+        HirodsConfigUtils.setIrodsFakeChecksumAlgorithm(this.conf, HirodsFileChecksum.MD5);
+        commit();
+    }
+
+    @Test
+    public void testDirect() throws IOException {
+        HirodsConfigUtils.setIrodsOutputDirect(this.conf, true);
+        HirodsConfigUtils.setIrodsOutputSegmentSize(this.conf, 4096);
+        commit();
+        checkOutput();
+    }
+
+    @Test
+    public void testReplacesExistingOutput() throws IOException {
+        this.fs = FileSystem.get(GRID, this.conf);
+        FSDataOutputStream out = this.fs.create(new Path(this.output, "part-r-00000"));
+        out.write(new byte[100000]);
+        out.close();
+        this.fs.close();
+
+        HirodsConfigUtils.setIrodsOutputCommitThreads(this.conf, 3);
+        commit();
+        checkOutput();
+    }
+
+    @Test
+    public void testNothingToCommit() throws IOException {
+        this.fs = FileSystem.get(GRID, this.conf);
+        TaskAttemptContext context = new TaskAttemptContext(this.conf, new TaskAttemptID("job", 1, true, 0, 0));
+        HirodsFileOutputCommitter committer = new HirodsFileOutputCommitter(this.output, new Path(this.folder.newFolder("staging").toURI()), context);
+        committer.setupJob(context);
+        committer.commitTask(context);
+        committer.commitJob(context);
+        assertFalse(new File(this.folder.getRoot(), "grid/zone/home/output/_temporary").exists());
+    }
+}
@@ -0,0 +1,143 @@
+package edu.arizona.cs.hadoop.fs.irods.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HirodsTarUtilsTest {
+
+    private static class Collector implements HirodsTarUtils.EntryHandler {
+
+        List<String> names = new ArrayList<String>();
+        List<byte[]> contents = new ArrayList<byte[]>();
+
+        @Override
+        public void file(String name, long length, InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int bytes_read;
+            while ((bytes_read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytes_read);
+            }
+            assertEquals(length, out.size());
+            this.names.add(name);
+            this.contents.add(out.toByteArray());
+        }
+
+        @Override
+        public void directory(String name) throws IOException {
+            this.names.add(name + "/");
+            this.contents.add(null);
+        }
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static void write(ByteArrayOutputStream out, String name, byte[] data) throws IOException {
+        HirodsTarUtils.writeFile(out, name, data.length, 1400000000000L, new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        StringBuilder dir = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            dir.append("directory").append(i).append('/');
+        }
+        String longName = dir + "part-r-00000";
+        assertTrue(longName.length() > 100);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "part-r-00000", random(1000));
+        write(out, "sub/empty", new byte[0]);
+        write(out, longName, random(512));
+        HirodsTarUtils.writeEnd(out);
+        assertEquals(HirodsTarUtils.entrySize(1000) + HirodsTarUtils.entrySize(0) + HirodsTarUtils.entrySize(512) + 2 * HirodsTarUtils.BLOCK_SIZE, out.size());
+
+        Collector collector = new Collector();
+        HirodsTarUtils.extract(new ByteArrayInputStream(out.toByteArray()), collector);
+        assertEquals(Arrays.asList("part-r-00000", "sub/empty", longName), collector.names);
+        assertArrayEquals(random(1000), collector.contents.get(0));
+        assertEquals(0, collector.contents.get(1).length);
+        assertArrayEquals(random(512), collector.contents.get(2));
+    }
+
+    @Test
+    public void testEndMarkerOptional() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "a", random(10));
+
+        Collector collector = new Collector();
+        HirodsTarUtils.extract(new ByteArrayInputStream(out.toByteArray()), collector);
+        assertEquals(Arrays.asList("a"), collector.names);
+    }
+
+    @Test
+    public void testHandlerMayStopEarly() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "a", random(3000));
+        write(out, "b", random(20));
+        HirodsTarUtils.writeEnd(out);
+
+        final List<String> names = new ArrayList<String>();
+        HirodsTarUtils.extract(new ByteArrayInputStream(out.toByteArray()), new HirodsTarUtils.EntryHandler() {
+            @Override
+            public void file(String name, long length, InputStream in) throws IOException {
+                // leave the content unread
+                names.add(name);
+            }
+
+            @Override
+            public void directory(String name) {
+                fail();
+            }
+        });
+        assertEquals(Arrays.asList("a", "b"), names);
+    }
+
+    @Test
+    public void testFitsHeader() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 101; i++) {
+            name.append('x');
+        }
+        assertTrue(HirodsTarUtils.fitsHeader("a/b", 0));
+        assertFalse(HirodsTarUtils.fitsHeader(name.toString(), 0));
+        assertFalse(HirodsTarUtils.fitsHeader("a/" + name, 0));
+        assertFalse(HirodsTarUtils.fitsHeader("a", 1L << 33));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "a", random(10));
+        byte[] bundle = out.toByteArray();
+        bundle[0] = 'b';
+        HirodsTarUtils.extract(new ByteArrayInputStream(bundle), new Collector());
+    }
+
+    @Test(expected = IOException.class)
+    public void testEscapingName() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "a/../../etc/passwd", random(10));
+        HirodsTarUtils.extract(new ByteArrayInputStream(out.toByteArray()), new Collector());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "a", random(1000));
+        byte[] bundle = Arrays.copyOf(out.toByteArray(), 700);
+        HirodsTarUtils.extract(new ByteArrayInputStream(bundle), new Collector());
+    }
+}